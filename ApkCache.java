@@ -0,0 +1,277 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import cn.gnsit.wenwan.app.utils.FileDigest;
+import cn.gnsit.wenwan.app.utils.LogUtil;
+
+/**
+ * 下载目录中的安装包缓存
+ * 索引文件记录每个安装包的版本号、大小、SHA-256和最近访问时间,查找只访问内存中的索引,不列目录,
+ * 只更新访问时间时索引在后台线程中合并写入;
+ * 新版本下载完成后淘汰旧版本,总大小超过上限时按最近访问时间淘汰;
+ * 正在下载和安装的版本的所有产物(完整包、补丁包等)不参与容量淘汰,直到被更新的版本取代
+ */
+public class ApkCache {
+    private static final String TAG = ApkCache.class.getSimpleName();
+    private static final String INDEX_NAME = "apk_cache.index";
+    private static final String SEPARATOR = "|";
+
+    public static final long DEFAULT_MAX_BYTES = 200L * 1024 * 1024;
+
+    private static ApkCache instance;
+
+    private final File dir;
+    private final File indexFile;
+    // accessOrder为true,迭代顺序即最近最少使用顺序
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long totalBytes;
+    private boolean indexWritePending;
+
+    public static class Entry {
+        private final String name;
+        private final int build;
+        private final long size;
+        private final String sha256;
+        private long lastAccess;
+
+        Entry(String name, int build, long size, String sha256, long lastAccess) {
+            this.name = name;
+            this.build = build;
+            this.size = size;
+            this.sha256 = sha256;
+            this.lastAccess = lastAccess;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getBuild() {
+            return build;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public long getLastAccess() {
+            return lastAccess;
+        }
+    }
+
+    private ApkCache(File dir) {
+        this.dir = dir;
+        this.indexFile = new File(dir, INDEX_NAME);
+        readIndex();
+    }
+
+    public static synchronized ApkCache getInstance(File dir) {
+        if (instance == null || !instance.dir.equals(dir)) {
+            instance = new ApkCache(dir);
+        }
+        return instance;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim(newestBuild());
+    }
+
+    /**
+     * 查找已缓存的安装包,文件缺失、大小不符、版本号不同或摘要与expectedHash不一致时返回null
+     * 文件名只由下载地址决定,服务端用固定文件名发布时不同版本同名,因此必须比较版本号
+     *
+     * @param build        期望的版本号
+     * @param expectedHash 为null时不比较摘要
+     */
+    public synchronized File get(String name, int build, String expectedHash) {
+        Entry entry = entries.get(name);
+        if (entry == null || entry.build != build)
+            return null;
+        File file = new File(dir, name);
+        if (file.length() != entry.size) {
+            remove(name);
+            writeIndex();
+            return null;
+        }
+        if (expectedHash != null && !FileDigest.matches(expectedHash, entry.sha256))
+            return null;
+        entry.lastAccess = System.currentTimeMillis();
+        scheduleIndexWrite();
+        return file;
+    }
+
+    /**
+     * 登记下载完成并已校验的安装包,同时淘汰旧版本并检查容量
+     */
+    public synchronized void put(File file, int build, String sha256) {
+        String name = file.getName();
+        remove(name);
+        Entry entry = new Entry(name, build, file.length(), sha256, System.currentTimeMillis());
+        entries.put(name, entry);
+        totalBytes += entry.size;
+        evictSuperseded(build);
+        trim(build);
+        writeIndex();
+    }
+
+    /**
+     * 安装时调用,更新最近访问时间
+     */
+    public synchronized void touch(File file) {
+        Entry entry = entries.get(file.getName());
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+            scheduleIndexWrite();
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private void evictSuperseded(int latestBuild) {
+        List<String> superseded = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.build < latestBuild)
+                superseded.add(entry.name);
+        }
+        for (String name : superseded) {
+            LogUtil.d(TAG, "evict superseded " + name);
+            delete(remove(name));
+        }
+    }
+
+    /**
+     * 超出容量时从最久未访问的开始淘汰,跳过protectedBuild的产物
+     * 同一版本的多个产物由ArtifactScheduler依次登记,安装前基础包可能正是最久未访问的一个,
+     * 淘汰它会让随后的安装或补丁合并失败,因此当前版本即使超出容量也整体保留
+     */
+    private void trim(int protectedBuild) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.build == protectedBuild)
+                continue;
+            iterator.remove();
+            totalBytes -= entry.size;
+            LogUtil.d(TAG, "evict " + entry.name);
+            delete(entry);
+        }
+    }
+
+    private int newestBuild() {
+        int newest = Integer.MIN_VALUE;
+        for (Entry entry : entries.values()) {
+            newest = Math.max(newest, entry.build);
+        }
+        return newest;
+    }
+
+    private Entry remove(String name) {
+        Entry entry = entries.remove(name);
+        if (entry != null)
+            totalBytes -= entry.size;
+        return entry;
+    }
+
+    private void delete(Entry entry) {
+        if (entry == null)
+            return;
+        File file = new File(dir, entry.name);
+        DownloadJournal.load(file).delete();
+        FileSink.partFileOf(file).delete();
+        file.delete();
+    }
+
+    /**
+     * 查找可能在主线程中进行,访问时间的更新不同步写文件;连续多次更新只写一次
+     */
+    private void scheduleIndexWrite() {
+        if (indexWritePending)
+            return;
+        indexWritePending = true;
+        UpdateExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ApkCache.this) {
+                    if (indexWritePending)
+                        writeIndex();
+                }
+            }
+        });
+    }
+
+    private void readIndex() {
+        if (!indexFile.exists())
+            return;
+        List<Entry> loaded = new ArrayList<>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\\" + SEPARATOR);
+                if (fields.length != 5)
+                    continue;
+                loaded.add(new Entry(fields[0], Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+                        fields[3], Long.parseLong(fields[4])));
+            }
+        } catch (Exception e) {
+            LogUtil.d(TAG, "read index failed: " + e.getMessage());
+        } finally {
+            DownloadJournal.closeQuietly(reader);
+        }
+        // 按最近访问时间恢复LRU顺序
+        Collections.sort(loaded, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.lastAccess < rhs.lastAccess ? -1 : (lhs.lastAccess == rhs.lastAccess ? 0 : 1);
+            }
+        });
+        for (Entry entry : loaded) {
+            entries.put(entry.name, entry);
+            totalBytes += entry.size;
+        }
+    }
+
+    private void writeIndex() {
+        indexWritePending = false;
+        File temp = new File(dir, INDEX_NAME + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            for (Entry entry : entries.values()) {
+                writer.write(entry.name + SEPARATOR + entry.build + SEPARATOR + entry.size + SEPARATOR
+                        + entry.sha256 + SEPARATOR + entry.lastAccess + "\n");
+            }
+            writer.close();
+            writer = null;
+            if (!temp.renameTo(indexFile))
+                LogUtil.d(TAG, "rename index failed");
+        } catch (IOException e) {
+            LogUtil.d(TAG, "write index failed: " + e.getMessage());
+        } finally {
+            DownloadJournal.closeQuietly(writer);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.File;
+
+/**
+ * 安装包下载器,download()为阻塞调用,需在工作线程中执行
+ */
+public interface ApkDownloader {
+    int ERROR_IO = -1;
+    int ERROR_CANCELED = -2;
+    int ERROR_VERIFY = -3;
+
+    interface Listener {
+        /**
+         * 收到响应、开始传输之前先回调一次已有的字节数(续传的起点或已缓存的部分),之后每次写入后回调累计值;
+         * 相邻两次的差值即本次实际传输的字节数
+         *
+         * @param total 未知时为-1
+         */
+        void onProgress(long received, long total);
+
+        void onSuccess(File file);
+
+        void onError(int code, String message);
+    }
+
+    /**
+     * @param expectedHash 期望的SHA-256,不为null时下载完成后校验,校验失败删除文件并回调ERROR_VERIFY
+     */
+    void download(String url, File dest, String expectedHash, Listener listener);
+
+    void cancel();
+}
@@ -0,0 +1,120 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.zip.GZIPInputStream;
+
+import cn.gnsit.wenwan.app.utils.FileDigest;
+
+/**
+ * 增量包合成
+ * 增量包为gzip压缩的指令流:
+ * <pre>
+ * "WWPATCH1"                     8字节魔数
+ * long   targetLength            合成后的文件长度
+ * byte   op                      1=COPY, 2=ADD, 0=END
+ *   COPY: long offset, int length  从旧安装包复制
+ *   ADD:  int length, byte[length] 新数据
+ * </pre>
+ * 旧安装包按需随机读取,新文件边写边计算SHA-256,整个过程不需要把任何一方完整加载到内存;
+ * 与{@link FileSink}相同,先写到临时文件,校验通过并落盘后再重命名,中途崩溃不会留下同名的不完整文件;
+ * 临时文件不与完整下载的<output>.part共用,避免覆盖可以续传的数据
+ */
+public class ApkPatcher {
+    private static final byte[] MAGIC = {'W', 'W', 'P', 'A', 'T', 'C', 'H', '1'};
+    private static final int OP_END = 0;
+    private static final int OP_COPY = 1;
+    private static final int OP_ADD = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_SUFFIX = ".patching";
+
+    private ApkPatcher() {
+    }
+
+    /**
+     * 用增量包和旧安装包合成新安装包,合成结果的SHA-256与expectedHash不一致时抛出异常,output保持不变
+     */
+    public static void apply(File oldApk, File patch, File output, String expectedHash) throws IOException {
+        File part = new File(output.getParentFile(), output.getName() + TEMP_SUFFIX);
+        RandomAccessFile old = new RandomAccessFile(oldApk, "r");
+        DataInputStream in = null;
+        FileOutputStream file = null;
+        OutputStream out = null;
+        boolean success = false;
+        try {
+            in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(patch), BUFFER_SIZE)));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i])
+                    throw new IOException("bad patch header");
+            }
+            long targetLength = in.readLong();
+
+            MessageDigest digest = FileDigest.newSha256();
+            file = new FileOutputStream(part);
+            out = new BufferedOutputStream(file, BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long written = 0;
+            int op;
+            while ((op = in.readUnsignedByte()) != OP_END) {
+                if (op == OP_COPY) {
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (offset < 0 || length < 0 || offset + length > old.length())
+                        throw new IOException("copy out of range");
+                    old.seek(offset);
+                    while (length > 0) {
+                        int n = Math.min(length, buffer.length);
+                        old.readFully(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                        digest.update(buffer, 0, n);
+                        length -= n;
+                        written += n;
+                    }
+                } else if (op == OP_ADD) {
+                    int length = in.readInt();
+                    if (length < 0)
+                        throw new IOException("bad add length");
+                    while (length > 0) {
+                        int n = Math.min(length, buffer.length);
+                        in.readFully(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                        digest.update(buffer, 0, n);
+                        length -= n;
+                        written += n;
+                    }
+                } else {
+                    throw new IOException("unknown patch op " + op);
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+            out.close();
+            out = null;
+            if (written != targetLength)
+                throw new IOException("patched length " + written + " != " + targetLength);
+            String actual = FileDigest.toHex(digest.digest());
+            if (!FileDigest.matches(expectedHash, actual))
+                throw new IOException("patched hash mismatch " + actual);
+            if (!part.renameTo(output))
+                throw new IOException("rename " + part.getName() + " failed");
+            success = true;
+        } finally {
+            DownloadJournal.closeQuietly(in);
+            DownloadJournal.closeQuietly(out);
+            DownloadJournal.closeQuietly(file);
+            DownloadJournal.closeQuietly(old);
+            if (!success)
+                part.delete();
+        }
+    }
+}
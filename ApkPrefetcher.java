@@ -0,0 +1,223 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+import cn.gnsit.wenwan.app.utils.ConnectivityMonitor;
+import cn.gnsit.wenwan.app.utils.LogUtil;
+
+/**
+ * 后台静默预下载
+ * 只在不计费的wifi下、未开启省电模式且设备空闲(熄屏或充电中)时开始在后台线程池中下载,
+ * 网络切换到移动数据时暂停(已下载部分由续传日志保留),回到wifi后继续;下载完成并校验后登记到ApkCache,用户点击更新时直接安装
+ * 无论正常结束还是被用户触发的下载接管,Callback都只回调一次
+ */
+public class ApkPrefetcher implements ConnectivityMonitor.Listener {
+    private static final String TAG = ApkPrefetcher.class.getSimpleName();
+
+    public interface Callback {
+        void onPrefetchFinished(ApkPrefetcher prefetcher, boolean success);
+    }
+
+    private final Context context;
+    private final String url;
+    private final File dest;
+    private final String expectedHash;
+    private final int build;
+    private final Callback callback;
+
+    private ResumableDownloader downloader;
+    private Future<?> running;
+    private boolean stopped;
+    private boolean started;
+    private boolean notified;
+
+    // 熄屏或接上电源时重新判断能否开始
+    private final BroadcastReceiver idleReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onChanged(ConnectivityMonitor.get(context).snapshot());
+        }
+    };
+
+    public ApkPrefetcher(Context context, String url, File dest, String expectedHash, int build, Callback callback) {
+        this.context = context.getApplicationContext();
+        this.url = url;
+        this.dest = dest;
+        this.expectedHash = expectedHash;
+        this.build = build;
+        this.callback = callback;
+    }
+
+    public static boolean isAllowed(Context context, ConnectivityMonitor.Snapshot snapshot) {
+        if (!snapshot.isWifi() || snapshot.isMetered())
+            return false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            return powerManager == null || !powerManager.isPowerSaveMode();
+        }
+        return true;
+    }
+
+    /**
+     * 设备空闲:熄屏或正在充电;Doze状态下网络受限,不算作空闲
+     */
+    public static boolean isIdle(Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (powerManager != null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && powerManager.isDeviceIdleMode())
+                return false;
+            boolean interactive = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH
+                    ? powerManager.isInteractive() : powerManager.isScreenOn();
+            if (!interactive)
+                return true;
+        }
+        // 粘性广播,传入null不会注册接收者
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    public void start() {
+        IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        context.registerReceiver(idleReceiver, filter);
+        ConnectivityMonitor monitor = ConnectivityMonitor.get(context);
+        monitor.addListener(this);
+        onChanged(monitor.snapshot());
+    }
+
+    /**
+     * 停止预下载,已下载部分保留
+     */
+    public void stop() {
+        takeover();
+    }
+
+    /**
+     * 停止预下载并返回仍在退出中的下载任务,调用方需等待该任务结束后再写同一个文件
+     */
+    public Future<?> takeover() {
+        Future<?> current;
+        synchronized (this) {
+            unregister();
+            if (downloader != null)
+                downloader.cancel();
+            current = running;
+            running = null;
+            downloader = null;
+        }
+        notifyFinished(false);
+        return current;
+    }
+
+    @Override
+    public synchronized void onChanged(ConnectivityMonitor.Snapshot snapshot) {
+        if (stopped)
+            return;
+        boolean allowed = isAllowed(context, snapshot);
+        // 只有第一次开始需要等待设备空闲,被网络切换暂停后回到wifi直接继续
+        if (allowed && running == null && (started || isIdle(context))) {
+            started = true;
+            LogUtil.d(TAG, "prefetch start");
+            startDownload();
+        } else if (!allowed && downloader != null) {
+            LogUtil.d(TAG, "prefetch paused");
+            downloader.cancel();
+        }
+    }
+
+    private void startDownload() {
+        DownloadProfile profile = DownloadProfile.forNetwork(ConnectivityMonitor.get(context).snapshot());
+        final ResumableDownloader task = new ResumableDownloader(UpdateHttpClient.getInstance().getClient(), profile,
+                new RateLimiter(profile.getRateLimit()));
+        downloader = task;
+        running = UpdateExecutors.download().submit(new Runnable() {
+            @Override
+            public void run() {
+                task.download(url, dest, expectedHash, new ApkDownloader.Listener() {
+                    @Override
+                    public void onProgress(long received, long total) {
+                    }
+
+                    @Override
+                    public void onSuccess(File file) {
+                        if (expectedHash == null && !isIntact(file)) {
+                            finish(task, false);
+                            return;
+                        }
+                        ApkCache.getInstance(file.getParentFile()).put(file, build, DownloadJournal.load(file).getSha256());
+                        finish(task, true);
+                    }
+
+                    @Override
+                    public void onError(int code, String message) {
+                        LogUtil.d(TAG, "prefetch stopped " + code + ": " + message);
+                        finish(task, false);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 没有摘要时检查安装包结构,损坏的文件直接删除,由用户触发的下载重新获取
+     */
+    private static boolean isIntact(File file) {
+        try {
+            if (ApkValidator.validate(file).isValid())
+                return true;
+        } catch (IOException e) {
+            LogUtil.d(TAG, "validate prefetched apk failed: " + e.getMessage());
+        }
+        DownloadJournal.load(file).delete();
+        file.delete();
+        return false;
+    }
+
+    private void finish(ResumableDownloader task, boolean success) {
+        synchronized (this) {
+            if (downloader != task)
+                return;
+            downloader = null;
+            running = null;
+            // 被网络切换暂停时继续等待wifi,暂停期间wifi已恢复则立即继续
+            if (!success && task.isCanceled() && !stopped) {
+                if (isAllowed(context, ConnectivityMonitor.get(context).snapshot()))
+                    startDownload();
+                return;
+            }
+            unregister();
+        }
+        notifyFinished(success);
+    }
+
+    private void unregister() {
+        if (stopped)
+            return;
+        stopped = true;
+        ConnectivityMonitor.get(context).removeListener(this);
+        try {
+            context.unregisterReceiver(idleReceiver);
+        } catch (IllegalArgumentException ignored) {
+            // start()之前被停止,接收者没有注册
+        }
+    }
+
+    private void notifyFinished(boolean success) {
+        synchronized (this) {
+            if (notified)
+                return;
+            notified = true;
+        }
+        callback.onPrefetchFinished(this, success);
+    }
+}
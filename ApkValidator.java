@@ -0,0 +1,355 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import cn.gnsit.wenwan.app.utils.LogUtil;
+
+/**
+ * 安装前的安装包完整性检查
+ * 映射整个文件,从末尾的End of Central Directory找到中央目录,按目录中的CRC32校验每个条目;
+ * 条目分组后在ForkJoinPool中并行校验,结果为损坏条目所在的字节区间,可交给{@link ResumableDownloader#repair}只重新下载这些区间
+ */
+public class ApkValidator {
+    private static final String TAG = ApkValidator.class.getSimpleName();
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    /**
+     * 单个子任务至少分到的压缩数据量,更小的分组不再拆分
+     */
+    private static final long SPLIT_BYTES = 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * 文件中的字节区间[start, end)
+     */
+    public static class Range {
+        private final long start;
+        private final long end;
+
+        Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return start + "-" + end;
+        }
+    }
+
+    public static class Result {
+        private final boolean structureValid;
+        private final List<Range> badRanges;
+
+        Result(boolean structureValid, List<Range> badRanges) {
+            this.structureValid = structureValid;
+            this.badRanges = badRanges;
+        }
+
+        /**
+         * 中央目录是否可以解析,为false时无法定位损坏位置,只能整体重新下载
+         */
+        public boolean isStructureValid() {
+            return structureValid;
+        }
+
+        /**
+         * 损坏条目的字节区间,按起始位置排序并已合并相邻区间
+         */
+        public List<Range> getBadRanges() {
+            return badRanges;
+        }
+
+        public boolean isValid() {
+            return structureValid && badRanges.isEmpty();
+        }
+    }
+
+    private static class Entry {
+        int method;
+        int crc;
+        long compressedSize;
+        long size;
+        long localOffset;
+        // 按中央目录中的文件名和扩展字段长度估算的条目结尾,本地头损坏时使用
+        long estimatedEnd;
+    }
+
+    private ApkValidator() {
+    }
+
+    public static Result validate(File apk) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(apk, "r");
+        try {
+            long length = file.length();
+            if (length > Integer.MAX_VALUE) {
+                LogUtil.d(TAG, "file too large to map, skip");
+                return new Result(true, Collections.<Range>emptyList());
+            }
+            ByteBuffer map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            List<Entry> entries = readCentralDirectory(map, (int) length);
+            if (entries == null)
+                return new Result(false, Collections.<Range>emptyList());
+            List<Range> bad;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                bad = Parallel.check(map, entries);
+            } else {
+                bad = check(map, entries, 0, entries.size());
+            }
+            return new Result(true, merge(bad));
+        } finally {
+            DownloadJournal.closeQuietly(file);
+        }
+    }
+
+    /**
+     * @return 中央目录损坏或为ZIP64格式时返回null
+     */
+    private static List<Entry> readCentralDirectory(ByteBuffer map, int length) {
+        int eocd = -1;
+        int lowest = Math.max(0, length - EOCD_SIZE - MAX_COMMENT_SIZE);
+        for (int i = length - EOCD_SIZE; i >= lowest; i--) {
+            if (map.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            LogUtil.d(TAG, "end of central directory not found");
+            return null;
+        }
+        int count = map.getShort(eocd + 10) & 0xffff;
+        long directorySize = map.getInt(eocd + 12) & 0xffffffffL;
+        long directoryOffset = map.getInt(eocd + 16) & 0xffffffffL;
+        if (directoryOffset + directorySize > eocd) {
+            LogUtil.d(TAG, "central directory out of bounds");
+            return null;
+        }
+        List<Entry> entries = new ArrayList<>(count);
+        int position = (int) directoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (position + CENTRAL_HEADER_SIZE > eocd || map.getInt(position) != CENTRAL_SIGNATURE) {
+                LogUtil.d(TAG, "bad central directory entry " + i);
+                return null;
+            }
+            Entry entry = new Entry();
+            entry.method = map.getShort(position + 10) & 0xffff;
+            entry.crc = map.getInt(position + 16);
+            entry.compressedSize = map.getInt(position + 20) & 0xffffffffL;
+            entry.size = map.getInt(position + 24) & 0xffffffffL;
+            int nameLength = map.getShort(position + 28) & 0xffff;
+            int extraLength = map.getShort(position + 30) & 0xffff;
+            int commentLength = map.getShort(position + 32) & 0xffff;
+            entry.localOffset = map.getInt(position + 42) & 0xffffffffL;
+            entry.estimatedEnd = Math.min(directoryOffset,
+                    entry.localOffset + LOCAL_HEADER_SIZE + nameLength + extraLength + entry.compressedSize);
+            entries.add(entry);
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private static List<Range> check(ByteBuffer map, List<Entry> entries, int from, int to) {
+        List<Range> bad = new ArrayList<>();
+        byte[] input = new byte[CHUNK_SIZE];
+        byte[] output = new byte[CHUNK_SIZE];
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        // 每个任务使用独立的position;duplicate不保留字节序,需要重新设置
+        ByteBuffer view = map.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            for (int i = from; i < to; i++) {
+                Entry entry = entries.get(i);
+                Range range = checkEntry(view, entry, input, output, inflater, crc);
+                if (range != null)
+                    bad.add(range);
+            }
+        } finally {
+            inflater.end();
+        }
+        return bad;
+    }
+
+    /**
+     * 校验一个条目,通过时返回null,否则返回需要重新下载的区间
+     * 区间按本地文件头给出的实际位置计算:zipalign只填充本地头的extra字段,按中央目录估算的结尾会偏短;本地头不可读时才使用估算值
+     */
+    private static Range checkEntry(ByteBuffer view, Entry entry, byte[] input, byte[] output, Inflater inflater, CRC32 crc) {
+        long header = entry.localOffset;
+        Range estimated = new Range(header, Math.max(header + 1, entry.estimatedEnd));
+        if (header + LOCAL_HEADER_SIZE > view.limit() || view.getInt((int) header) != LOCAL_SIGNATURE)
+            return estimated;
+        int nameLength = view.getShort((int) header + 26) & 0xffff;
+        int extraLength = view.getShort((int) header + 28) & 0xffff;
+        long start = header + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        long end = start + entry.compressedSize;
+        if (end > view.limit())
+            return estimated;
+        return checkData(view, entry, start, input, output, inflater, crc) ? null : new Range(header, end);
+    }
+
+    private static boolean checkData(ByteBuffer view, Entry entry, long start, byte[] input, byte[] output,
+                                     Inflater inflater, CRC32 crc) {
+        crc.reset();
+        view.position((int) start);
+        if (entry.method == METHOD_STORED) {
+            if (entry.compressedSize != entry.size)
+                return false;
+            long remaining = entry.compressedSize;
+            while (remaining > 0) {
+                int n = (int) Math.min(input.length, remaining);
+                view.get(input, 0, n);
+                crc.update(input, 0, n);
+                remaining -= n;
+            }
+        } else if (entry.method == METHOD_DEFLATED) {
+            inflater.reset();
+            long remaining = entry.compressedSize;
+            long produced = 0;
+            boolean padded = false;
+            try {
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        if (remaining > 0) {
+                            int n = (int) Math.min(input.length, remaining);
+                            view.get(input, 0, n);
+                            inflater.setInput(input, 0, n);
+                            remaining -= n;
+                        } else if (!padded) {
+                            // nowrap模式下zlib可能需要一个额外的填充字节才能结束
+                            input[0] = 0;
+                            inflater.setInput(input, 0, 1);
+                            padded = true;
+                        } else {
+                            return false;
+                        }
+                    }
+                    int n = inflater.inflate(output);
+                    if (n == 0 && (inflater.needsDictionary() || (!inflater.needsInput() && !inflater.finished())))
+                        return false;
+                    crc.update(output, 0, n);
+                    produced += n;
+                    if (produced > entry.size)
+                        return false;
+                }
+            } catch (DataFormatException e) {
+                return false;
+            }
+            if (produced != entry.size)
+                return false;
+        } else {
+            // 其他压缩方式不在安装包中使用,不做校验
+            return true;
+        }
+        return (int) crc.getValue() == entry.crc;
+    }
+
+    private static List<Range> merge(List<Range> ranges) {
+        if (ranges.size() <= 1)
+            return ranges;
+        List<Range> sorted = new ArrayList<>(ranges);
+        Collections.sort(sorted, new Comparator<Range>() {
+            @Override
+            public int compare(Range lhs, Range rhs) {
+                return lhs.start < rhs.start ? -1 : (lhs.start == rhs.start ? 0 : 1);
+            }
+        });
+        List<Range> merged = new ArrayList<>();
+        Range current = sorted.get(0);
+        for (int i = 1; i < sorted.size(); i++) {
+            Range next = sorted.get(i);
+            if (next.start <= current.end) {
+                current = new Range(current.start, Math.max(current.end, next.end));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    /**
+     * ForkJoinPool在API 21之前不可用,单独放在内部类中,低版本不会加载
+     */
+    private static class Parallel {
+        private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        static List<Range> check(ByteBuffer map, List<Entry> entries) {
+            return POOL.invoke(new CheckTask(map, entries, 0, entries.size()));
+        }
+    }
+
+    private static class CheckTask extends RecursiveTask<List<Range>> {
+        private final ByteBuffer map;
+        private final List<Entry> entries;
+        private final int from;
+        private final int to;
+
+        CheckTask(ByteBuffer map, List<Entry> entries, int from, int to) {
+            this.map = map;
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Range> compute() {
+            long bytes = 0;
+            for (int i = from; i < to; i++) {
+                bytes += entries.get(i).compressedSize;
+            }
+            if (to - from <= 1 || bytes <= SPLIT_BYTES)
+                return ApkValidator.check(map, entries, from, to);
+            // 按压缩数据量对半拆分,避免大条目集中在一侧
+            int mid = from;
+            long half = 0;
+            while (mid < to - 1 && half < bytes / 2) {
+                half += entries.get(mid).compressedSize;
+                mid++;
+            }
+            if (mid == from)
+                mid = from + 1;
+            CheckTask left = new CheckTask(map, entries, from, mid);
+            CheckTask right = new CheckTask(map, entries, mid, to);
+            left.fork();
+            List<Range> result = new ArrayList<>(right.compute());
+            result.addAll(left.join());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cn.gnsit.wenwan.app.utils.LogUtil;
+import cn.gnsit.wenwan.app.utils.StringUtil;
+import okhttp3.OkHttpClient;
+
+/**
+ * 多文件更新的下载调度
+ * 清单中的文件按优先级排队,最多maxConcurrency个同时下载;已缓存且摘要一致的文件直接复用;
+ * 进度按所有文件的总字节数合并上报,必需文件全部完成后以基础安装包回调成功,任一必需文件失败则取消其余下载
+ */
+public class ArtifactScheduler implements ApkDownloader {
+    private static final String TAG = ArtifactScheduler.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 2;
+
+    private final OkHttpClient client;
+    private final DownloadProfile profile;
+    private final RateLimiter rateLimiter;
+    private final List<UpdateArtifact> artifacts;
+    private final int build;
+    private final int maxConcurrency;
+
+    private final List<ApkDownloader> running = new CopyOnWriteArrayList<>();
+    private final List<File> splitFiles = new CopyOnWriteArrayList<>();
+    private final List<File> assetFiles = new CopyOnWriteArrayList<>();
+    private volatile boolean canceled;
+    private volatile boolean failed;
+    private volatile int failedCode;
+    private volatile String failedMessage;
+
+    private long[] received;
+    private long[] totals;
+    private long reported = -1;
+
+    /**
+     * @param artifacts   清单中的全部文件,其中类型为{@link UpdateArtifact#TYPE_APK}的作为基础安装包
+     * @param rateLimiter 所有文件共享的限速器,为null时不限速
+     */
+    public ArtifactScheduler(OkHttpClient client, DownloadProfile profile, RateLimiter rateLimiter,
+                             List<UpdateArtifact> artifacts, int build, int maxConcurrency) {
+        this.client = client;
+        this.profile = profile;
+        this.rateLimiter = rateLimiter;
+        this.artifacts = artifacts;
+        this.build = build;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    /**
+     * 下载完成的拆分安装包,需要和基础安装包一起安装
+     */
+    public List<File> getSplitFiles() {
+        return new ArrayList<>(splitFiles);
+    }
+
+    public List<File> getAssetFiles() {
+        return new ArrayList<>(assetFiles);
+    }
+
+    @Override
+    public void cancel() {
+        canceled = true;
+        for (ApkDownloader downloader : running) {
+            downloader.cancel();
+        }
+    }
+
+    /**
+     * url和expectedHash参数被忽略,由清单决定;dest为基础安装包的保存位置,其他文件保存在同一目录
+     */
+    @Override
+    public void download(String url, File dest, String expectedHash, final Listener listener) {
+        int count = artifacts.size();
+        received = new long[count];
+        totals = new long[count];
+        final CountDownLatch done = new CountDownLatch(count);
+        final AtomicInteger sequence = new AtomicInteger();
+        final PriorityBlockingQueue<ArtifactTask> queue = new PriorityBlockingQueue<>();
+        List<Future<?>> workers = new ArrayList<>();
+        ApkCache cache = ApkCache.getInstance(dest.getParentFile());
+        try {
+            for (int i = 0; i < count; i++) {
+                UpdateArtifact artifact = artifacts.get(i);
+                File file = UpdateArtifact.TYPE_APK.equals(artifact.getType()) ? dest : fileFor(dest.getParentFile(), artifact);
+                totals[i] = artifact.getSize();
+                File cached = cache.get(file.getName(), build, artifact.getSha256());
+                if (cached != null) {
+                    LogUtil.d(TAG, "reuse cached " + file.getName());
+                    totals[i] = cached.length();
+                    received[i] = totals[i];
+                    onArtifactDone(artifact, cached);
+                    done.countDown();
+                    continue;
+                }
+                // 可续传的部分计入开始前的进度,与下载器第一次回调的续传起点一致
+                DownloadJournal journal = DownloadJournal.load(file);
+                if (!journal.isComplete() && FileSink.canResume(file, journal.getReceived()))
+                    received[i] = journal.getReceived();
+                queue.add(new ArtifactTask(i, artifact, file, sequence.getAndIncrement(), done, listener));
+            }
+            reportProgress(listener);
+            // 在共享线程池中启动至多maxConcurrency个工作者,各自按优先级从队列中取任务
+            int workerCount = Math.min(maxConcurrency, queue.size());
+            for (int i = 0; i < workerCount; i++) {
+                workers.add(UpdateExecutors.transfer().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        ArtifactTask task;
+                        while ((task = queue.poll()) != null) {
+                            task.run();
+                        }
+                    }
+                }));
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            cancel();
+        } finally {
+            for (Future<?> worker : workers) {
+                worker.cancel(true);
+            }
+        }
+        if (failed) {
+            listener.onError(failedCode, failedMessage);
+        } else if (canceled) {
+            listener.onError(ERROR_CANCELED, "canceled");
+        } else {
+            listener.onSuccess(dest);
+        }
+    }
+
+    static File fileFor(File dir, UpdateArtifact artifact) {
+        String url = artifact.getUrl();
+        String name = StringUtil.string2MD5(url.substring(url.lastIndexOf("/") + 1));
+        return new File(dir, name + (artifact.isApk() ? ".apk" : ".pack"));
+    }
+
+    private void onArtifactDone(UpdateArtifact artifact, File file) {
+        if (UpdateArtifact.TYPE_SPLIT.equals(artifact.getType())) {
+            splitFiles.add(file);
+        } else if (UpdateArtifact.TYPE_ASSET.equals(artifact.getType())) {
+            assetFiles.add(file);
+        }
+    }
+
+    private void reportProgress(Listener listener) {
+        // 多个下载线程同时上报,在锁内回调保证listener看到的进度单调
+        synchronized (this) {
+            long sumReceived = 0;
+            long sumTotal = 0;
+            for (int i = 0; i < received.length; i++) {
+                sumReceived += received[i];
+                // 大小未知的文件按已接收的字节计入总量
+                sumTotal += totals[i] > 0 ? totals[i] : received[i];
+            }
+            if (sumReceived == reported)
+                return;
+            reported = sumReceived;
+            listener.onProgress(sumReceived, sumTotal);
+        }
+    }
+
+    /**
+     * 按优先级、再按清单顺序出队
+     */
+    private class ArtifactTask implements Comparable<ArtifactTask> {
+        private final int index;
+        private final UpdateArtifact artifact;
+        private final File file;
+        private final int sequence;
+        private final CountDownLatch done;
+        private final Listener listener;
+
+        ArtifactTask(int index, UpdateArtifact artifact, File file, int sequence, CountDownLatch done, Listener listener) {
+            this.index = index;
+            this.artifact = artifact;
+            this.file = file;
+            this.sequence = sequence;
+            this.done = done;
+            this.listener = listener;
+        }
+
+        @Override
+        public int compareTo(ArtifactTask another) {
+            if (artifact.getPriority() != another.artifact.getPriority())
+                return artifact.getPriority() < another.artifact.getPriority() ? -1 : 1;
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+
+        void run() {
+            try {
+                if (canceled)
+                    return;
+                ResumableDownloader downloader = new ResumableDownloader(client, profile, rateLimiter);
+                running.add(downloader);
+                if (canceled)
+                    downloader.cancel();
+                downloader.download(artifact.getUrl(), file, artifact.getSha256(), new Listener() {
+                    @Override
+                    public void onProgress(long bytes, long total) {
+                        synchronized (ArtifactScheduler.this) {
+                            received[index] = bytes;
+                            if (total > 0)
+                                totals[index] = total;
+                        }
+                        reportProgress(listener);
+                    }
+
+                    @Override
+                    public void onSuccess(File result) {
+                        ApkCache.getInstance(result.getParentFile()).put(result, build,
+                                DownloadJournal.load(result).getSha256());
+                        onArtifactDone(artifact, result);
+                    }
+
+                    @Override
+                    public void onError(int code, String message) {
+                        LogUtil.d(TAG, "artifact " + artifact.getName() + " failed " + code + ": " + message);
+                        if (!artifact.isRequired() || canceled)
+                            return;
+                        failedCode = code;
+                        failedMessage = message;
+                        failed = true;
+                        cancel();
+                    }
+                });
+                running.remove(downloader);
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.IOException;
+
+import cn.gnsit.wenwan.app.model.VersionUpdateModel;
+import cn.gnsit.wenwan.app.utils.LogUtil;
+
+/**
+ * 一次版本检查的解析结果
+ */
+public class CheckResult {
+    private static final String TAG = CheckResult.class.getSimpleName();
+
+    private final VersionUpdateModel model;
+    private final UpgradeExtras extras;
+    private final String source;
+    private final String notesUrl;
+    private boolean descriptionLoaded;
+
+    public CheckResult(VersionUpdateModel model, UpgradeExtras extras, String source) {
+        this(model, extras, source, null);
+    }
+
+    /**
+     * @param notesUrl 紧凑编码的结果不带说明原文,由此地址单独获取
+     */
+    public CheckResult(VersionUpdateModel model, UpgradeExtras extras, String source, String notesUrl) {
+        this.model = model;
+        this.extras = extras;
+        this.source = source;
+        this.notesUrl = notesUrl;
+    }
+
+    public static CheckResult parse(String response) throws IOException {
+        return VersionResponseReader.read(response);
+    }
+
+    public VersionUpdateModel getModel() {
+        return model;
+    }
+
+    public UpgradeExtras getExtras() {
+        return extras;
+    }
+
+    public String getNotesUrl() {
+        return notesUrl;
+    }
+
+    public synchronized boolean isDescriptionLoaded() {
+        return descriptionLoaded;
+    }
+
+    /**
+     * 更新说明在解析时被跳过,第一次调用时从原文中读取;不发网络请求,可以在主线程调用
+     * 紧凑编码的结果在{@link #loadDescription()}之前返回null
+     */
+    public synchronized String getDescription() {
+        if (!descriptionLoaded && source != null)
+            readDescription();
+        return model.getDescription();
+    }
+
+    /**
+     * 读取更新说明,紧凑编码的结果需要从{@link #getNotesUrl()}获取,不能在主线程调用
+     * 获取失败时返回null,下次调用会重试
+     */
+    public String loadDescription() {
+        String notes = null;
+        synchronized (this) {
+            if (descriptionLoaded || notesUrl == null) {
+                if (!descriptionLoaded && source != null)
+                    readDescription();
+                return model.getDescription();
+            }
+        }
+        // 网络请求不持有锁,主线程的getDescription不会被阻塞
+        try {
+            notes = CompactCheckClient.fetchNotes(notesUrl);
+        } catch (IOException e) {
+            LogUtil.d(TAG, "fetch notes failed: " + e.getMessage());
+        }
+        synchronized (this) {
+            if (notes != null && !descriptionLoaded) {
+                model.setDescription(notes);
+                descriptionLoaded = true;
+            }
+            return model.getDescription();
+        }
+    }
+
+    private void readDescription() {
+        try {
+            model.setDescription(VersionResponseReader.readDescription(source));
+        } catch (IOException e) {
+            LogUtil.d(TAG, "read description failed: " + e.getMessage());
+        }
+        // 原文解析失败重试也不会成功
+        descriptionLoaded = true;
+    }
+}
@@ -0,0 +1,127 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.IOException;
+
+import okhttp3.Call;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 协商紧凑编码的版本检查请求
+ * Accept中优先请求{@link CompactCheckCodec#MEDIA_TYPE},服务端不支持时照常返回JSON,按响应的Content-Type选择解析方式;
+ * 请求通过{@link UpdateHttpClient}发出,与下载共用连接,可以随检查任务一起取消
+ */
+public class CompactCheckClient {
+    private static final String ACCEPT = CompactCheckCodec.MEDIA_TYPE + ", application/json;q=0.5";
+
+    private final String checkUrl;
+    private volatile Call call;
+    private volatile boolean canceled;
+
+    public static class Result {
+        private final int code;
+        private final Headers headers;
+        private final byte[] compactBody;
+        private final String jsonBody;
+
+        Result(int code, Headers headers, byte[] compactBody, String jsonBody) {
+            this.code = code;
+            this.headers = headers;
+            this.compactBody = compactBody;
+            this.jsonBody = jsonBody;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public Headers getHeaders() {
+            return headers;
+        }
+
+        /**
+         * 服务端返回紧凑编码时不为null
+         */
+        public byte[] getCompactBody() {
+            return compactBody;
+        }
+
+        /**
+         * 服务端返回JSON时不为null
+         */
+        public String getJsonBody() {
+            return jsonBody;
+        }
+    }
+
+    public CompactCheckClient(String checkUrl) {
+        this.checkUrl = checkUrl;
+    }
+
+    public void cancel() {
+        canceled = true;
+        Call current = call;
+        if (current != null)
+            current.cancel();
+    }
+
+    /**
+     * @param etag 缓存的ETag,用于If-None-Match,没有时传null
+     */
+    public Result check(String q, int build, String client, String etag) throws IOException {
+        HttpUrl url = HttpUrl.parse(checkUrl);
+        if (url == null)
+            throw new IOException("bad check url " + checkUrl);
+        url = url.newBuilder()
+                .addQueryParameter("q", q)
+                .addQueryParameter("build", String.valueOf(build))
+                .addQueryParameter("client", client)
+                .build();
+        Request.Builder builder = new Request.Builder().url(url).header("Accept", ACCEPT);
+        if (etag != null)
+            builder.header("If-None-Match", etag);
+        Response response = execute(builder.build());
+        try {
+            if (!response.isSuccessful())
+                return new Result(response.code(), response.headers(), null, null);
+            ResponseBody body = response.body();
+            if (CompactCheckCodec.isCompact(response.header("Content-Type")))
+                return new Result(response.code(), response.headers(), body.bytes(), null);
+            return new Result(response.code(), response.headers(), null, body.string());
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * 获取紧凑编码中notesUrl指向的更新说明,按纯文本读取
+     */
+    public static String fetchNotes(String notesUrl) throws IOException {
+        HttpUrl url = HttpUrl.parse(notesUrl);
+        if (url == null)
+            throw new IOException("bad notes url " + notesUrl);
+        Request request = new Request.Builder().url(url).header("Accept", "text/plain").build();
+        Response response = UpdateHttpClient.getInstance().getClient().newCall(request).execute();
+        try {
+            if (!response.isSuccessful())
+                throw new IOException("notes " + response.code());
+            return response.body().string();
+        } finally {
+            response.close();
+        }
+    }
+
+    private Response execute(Request request) throws IOException {
+        if (canceled)
+            throw new IOException("Canceled");
+        call = UpdateHttpClient.getInstance().getClient().newCall(request);
+        try {
+            return call.execute();
+        } finally {
+            call = null;
+        }
+    }
+}
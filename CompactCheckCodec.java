@@ -0,0 +1,289 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.gnsit.wenwan.app.model.VersionUpdateModel;
+import cn.gnsit.wenwan.app.utils.FileDigest;
+import okhttp3.HttpUrl;
+
+/**
+ * 版本检查响应的紧凑二进制编码
+ * 格式为魔数"WV"、格式版本,后接若干字段;每个字段以varint的(编号<<3|类型)开头,类型0为varint值,类型2为varint长度加字节,
+ * 未知编号按类型跳过,服务端可以增加字段而不破坏旧客户端;已知编号的类型不符时视为损坏;SHA-256以32字节原始值传输
+ * 不携带更新说明,只给出说明的地址,对话框显示时再单独获取;多文件清单仍使用JSON格式
+ */
+public class CompactCheckCodec {
+    public static final String MEDIA_TYPE = "application/vnd.wenwan.version";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte MAGIC_0 = 'W';
+    private static final byte MAGIC_1 = 'V';
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int TYPE_VARINT = 0;
+    private static final int TYPE_BYTES = 2;
+
+    private static final int FIELD_BUILD = 1;
+    private static final int FIELD_FLAGS = 2;
+    private static final int FIELD_UPGRADE_URL = 3;
+    private static final int FIELD_PATCH_URL = 4;
+    private static final int FIELD_PATCH_BASE_HASH = 5;
+    private static final int FIELD_TARGET_HASH = 6;
+    private static final int FIELD_RETRY_AFTER = 7;
+    private static final int FIELD_ROLLOUT_PERCENT = 8;
+    private static final int FIELD_ROLLOUT_START = 9;
+    private static final int FIELD_ROLLOUT_END = 10;
+    private static final int FIELD_MIRROR = 11;
+    private static final int FIELD_NOTES_URL = 12;
+
+    private static final int FLAG_NEED_UPGRADE = 1;
+    private static final int FLAG_MUST_UPGRADE = 1 << 1;
+
+    private static final int HASH_LENGTH = 32;
+
+    private CompactCheckCodec() {
+    }
+
+    /**
+     * 判断响应的Content-Type是否为紧凑编码
+     */
+    public static boolean isCompact(String contentType) {
+        return contentType != null && contentType.trim().toLowerCase().startsWith(MEDIA_TYPE);
+    }
+
+    public static CheckResult decode(byte[] data) throws IOException {
+        if (data.length < 3 || data[0] != MAGIC_0 || data[1] != MAGIC_1)
+            throw new IOException("not a compact check response");
+        if (data[2] != FORMAT_VERSION)
+            throw new IOException("unsupported format version " + data[2]);
+        VersionUpdateModel model = new VersionUpdateModel();
+        UpgradeExtras extras = new UpgradeExtras();
+        List<String> mirrors = new ArrayList<>();
+        String notesUrl = null;
+        Input in = new Input(data, 3);
+        while (in.hasRemaining()) {
+            long key = in.readVarint();
+            int field = (int) (key >>> 3);
+            int type = (int) (key & 0x07);
+            if (type != TYPE_VARINT && type != TYPE_BYTES)
+                throw new IOException("unknown field type " + type);
+            int expected = typeOf(field);
+            if (expected >= 0 && expected != type)
+                throw new IOException("field " + field + " has type " + type + ", expected " + expected);
+            switch (field) {
+                case FIELD_BUILD:
+                    model.setBuild((int) in.readVarint());
+                    break;
+                case FIELD_FLAGS:
+                    long flags = in.readVarint();
+                    model.setNeedUpgrade((flags & FLAG_NEED_UPGRADE) != 0);
+                    model.setMustUpgrade((flags & FLAG_MUST_UPGRADE) != 0);
+                    break;
+                case FIELD_UPGRADE_URL:
+                    model.setUpgradeUrl(in.readString());
+                    break;
+                case FIELD_PATCH_URL:
+                    extras.setPatchUrl(in.readString());
+                    break;
+                case FIELD_PATCH_BASE_HASH:
+                    extras.setPatchBaseHash(FileDigest.toHex(in.readHash()));
+                    break;
+                case FIELD_TARGET_HASH:
+                    extras.setTargetHash(FileDigest.toHex(in.readHash()));
+                    break;
+                case FIELD_RETRY_AFTER:
+                    extras.setRetryAfter(in.readVarint());
+                    break;
+                case FIELD_ROLLOUT_PERCENT:
+                    extras.setRolloutPercent((int) in.readVarint());
+                    break;
+                case FIELD_ROLLOUT_START:
+                    extras.setRolloutStart(in.readVarint());
+                    break;
+                case FIELD_ROLLOUT_END:
+                    extras.setRolloutEnd(in.readVarint());
+                    break;
+                case FIELD_MIRROR:
+                    mirrors.add(in.readString());
+                    break;
+                case FIELD_NOTES_URL:
+                    notesUrl = in.readString();
+                    // 说明在后台线程获取,地址无法解析时OkHttp会抛出运行时异常,在这里就按损坏处理
+                    if (HttpUrl.parse(notesUrl) == null)
+                        throw new IOException("bad notes url " + notesUrl);
+                    break;
+                default:
+                    if (type == TYPE_VARINT) {
+                        in.readVarint();
+                    } else {
+                        in.readBytes();
+                    }
+                    break;
+            }
+        }
+        if (!mirrors.isEmpty())
+            extras.setMirrors(mirrors);
+        return new CheckResult(model, extras, null, notesUrl);
+    }
+
+    /**
+     * 已知字段的类型,未知字段返回-1
+     */
+    private static int typeOf(int field) {
+        switch (field) {
+            case FIELD_BUILD:
+            case FIELD_FLAGS:
+            case FIELD_RETRY_AFTER:
+            case FIELD_ROLLOUT_PERCENT:
+            case FIELD_ROLLOUT_START:
+            case FIELD_ROLLOUT_END:
+                return TYPE_VARINT;
+            case FIELD_UPGRADE_URL:
+            case FIELD_PATCH_URL:
+            case FIELD_PATCH_BASE_HASH:
+            case FIELD_TARGET_HASH:
+            case FIELD_MIRROR:
+            case FIELD_NOTES_URL:
+                return TYPE_BYTES;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * 按同样的格式编码,供服务端实现和调试对照
+     *
+     * @param notesUrl 更新说明的地址,没有时传null
+     * @throws IllegalArgumentException 摘要不是64位十六进制的SHA-256
+     */
+    public static byte[] encode(VersionUpdateModel model, UpgradeExtras extras, String notesUrl) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        out.write(FORMAT_VERSION);
+        writeVarintField(out, FIELD_BUILD, model.getBuild());
+        int flags = (model.isNeedUpgrade() ? FLAG_NEED_UPGRADE : 0) | (model.isMustUpgrade() ? FLAG_MUST_UPGRADE : 0);
+        writeVarintField(out, FIELD_FLAGS, flags);
+        writeStringField(out, FIELD_UPGRADE_URL, model.getUpgradeUrl());
+        if (extras != null) {
+            writeStringField(out, FIELD_PATCH_URL, extras.getPatchUrl());
+            writeHashField(out, FIELD_PATCH_BASE_HASH, extras.getPatchBaseHash());
+            writeHashField(out, FIELD_TARGET_HASH, extras.getTargetHash());
+            if (extras.getRetryAfter() > 0)
+                writeVarintField(out, FIELD_RETRY_AFTER, extras.getRetryAfter());
+            if (extras.getRolloutPercent() != 100)
+                writeVarintField(out, FIELD_ROLLOUT_PERCENT, extras.getRolloutPercent());
+            if (extras.getRolloutStart() > 0)
+                writeVarintField(out, FIELD_ROLLOUT_START, extras.getRolloutStart());
+            if (extras.getRolloutEnd() > 0)
+                writeVarintField(out, FIELD_ROLLOUT_END, extras.getRolloutEnd());
+            for (String mirror : extras.getMirrors()) {
+                writeStringField(out, FIELD_MIRROR, mirror);
+            }
+        }
+        writeStringField(out, FIELD_NOTES_URL, notesUrl);
+        return out.toByteArray();
+    }
+
+    private static void writeVarintField(ByteArrayOutputStream out, int field, long value) {
+        writeVarint(out, ((long) field << 3) | TYPE_VARINT);
+        writeVarint(out, value);
+    }
+
+    private static void writeStringField(ByteArrayOutputStream out, int field, String value) {
+        if (value != null)
+            writeBytesField(out, field, value.getBytes(UTF_8));
+    }
+
+    private static void writeHashField(ByteArrayOutputStream out, int field, String hex) {
+        if (hex == null)
+            return;
+        byte[] hash = fromHex(hex);
+        if (hash.length != HASH_LENGTH)
+            throw new IllegalArgumentException("not a sha-256 hash " + hex);
+        writeBytesField(out, field, hash);
+    }
+
+    private static void writeBytesField(ByteArrayOutputStream out, int field, byte[] bytes) {
+        writeVarint(out, ((long) field << 3) | TYPE_BYTES);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 无符号LEB128,每字节7位,最高位表示后面还有字节
+     */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0)
+            throw new IllegalArgumentException("odd hex length");
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0)
+                throw new IllegalArgumentException("bad hex " + hex);
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    private static class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        boolean hasRemaining() {
+            return position < data.length;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= data.length)
+                    throw new IOException("truncated varint");
+                byte b = data[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("malformed varint");
+        }
+
+        byte[] readBytes() throws IOException {
+            long length = readVarint();
+            if (length < 0 || length > data.length - position)
+                throw new IOException("truncated field");
+            byte[] bytes = new byte[(int) length];
+            System.arraycopy(data, position, bytes, 0, bytes.length);
+            position += bytes.length;
+            return bytes;
+        }
+
+        byte[] readHash() throws IOException {
+            byte[] hash = readBytes();
+            if (hash.length != HASH_LENGTH)
+                throw new IOException("hash length " + hash.length);
+            return hash;
+        }
+
+        String readString() throws IOException {
+            return new String(readBytes(), UTF_8);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import cn.gnsit.wenwan.app.utils.LogUtil;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 下载前的连接预热
+ * 检查到新版本、更新对话框还在显示时,在后台解析下载域名并用HEAD请求建立TCP/TLS连接,
+ * 连接留在{@link UpdateHttpClient}的连接池中,随后的下载直接复用;预热本身的耗时以{@link UpdateMetrics.Stage#PREWARM_COST}上报
+ */
+public class ConnectionWarmer {
+    private static final String TAG = ConnectionWarmer.class.getSimpleName();
+
+    /**
+     * 同一主机在此时间内不重复预热,不超过连接池默认的空闲保持时间
+     */
+    private static final long REWARM_INTERVAL = 60 * 1000;
+
+    private static final Map<String, Long> warmedAt = new HashMap<>();
+
+    private ConnectionWarmer() {
+    }
+
+    public static void warm(String url) {
+        final HttpUrl httpUrl = url == null ? null : HttpUrl.parse(url);
+        if (httpUrl == null)
+            return;
+        String key = httpUrl.scheme() + "://" + httpUrl.host() + ":" + httpUrl.port();
+        long now = SystemClock.elapsedRealtime();
+        synchronized (warmedAt) {
+            Long last = warmedAt.get(key);
+            if (last != null && now - last < REWARM_INTERVAL)
+                return;
+            warmedAt.put(key, now);
+        }
+        UpdateExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                OkHttpClient client = UpdateHttpClient.getInstance().getClient();
+                UpdateMetrics metrics = UpdateMetrics.getInstance();
+                metrics.begin(UpdateMetrics.Stage.PREWARM_COST);
+                try {
+                    client.dns().lookup(httpUrl.host());
+                    // HEAD没有响应体,请求结束后连接一定会回到连接池
+                    Response response = client.newCall(new Request.Builder().url(httpUrl).head().build()).execute();
+                    response.close();
+                    metrics.end(UpdateMetrics.Stage.PREWARM_COST);
+                    LogUtil.d(TAG, "warmed " + httpUrl.host() + " " + response.code());
+                } catch (IOException e) {
+                    metrics.failure(UpdateMetrics.Stage.PREWARM_COST, UpdateMetrics.REASON_IO);
+                    LogUtil.d(TAG, "warm " + httpUrl.host() + " failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+}
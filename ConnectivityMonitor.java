@@ -0,0 +1,296 @@
+package cn.gnsit.wenwan.app.utils;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 网络状态监听
+ * 只注册一次,网络变化时刷新不可变的快照,NetUtil的查询直接读取快照,不再每次跨进程查询;
+ * API 24起快照直接由默认网络回调中的NetworkCapabilities和LinkProperties构建,快照有变化时才通知监听者;
+ * 默认网络回调在ConnectivityService的回调线程中执行,广播在主线程中接收,监听者统一在主线程中通知
+ */
+public class ConnectivityMonitor {
+	private static final String TAG = ConnectivityMonitor.class.getSimpleName();
+
+	private static volatile ConnectivityMonitor instance;
+
+	private final Context context;
+	private final ConnectivityManager connectivityManager;
+	private volatile Snapshot snapshot = Snapshot.NONE;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	public interface Listener {
+		/**
+		 * 在主线程中调用
+		 */
+		void onChanged(Snapshot snapshot);
+	}
+
+	/**
+	 * 某一时刻的网络状态
+	 */
+	public static final class Snapshot {
+		static final Snapshot NONE = new Snapshot(false, -1, -1, false, "");
+
+		private final boolean connected;
+		private final int type;
+		private final int subtype;
+		private final boolean metered;
+		private final String ipv4;
+
+		Snapshot(boolean connected, int type, int subtype, boolean metered, String ipv4) {
+			this.connected = connected;
+			this.type = type;
+			this.subtype = subtype;
+			this.metered = metered;
+			this.ipv4 = ipv4;
+		}
+
+		public boolean isConnected() {
+			return connected;
+		}
+
+		/**
+		 * ConnectivityManager.TYPE_*,无网络时为-1
+		 */
+		public int getType() {
+			return type;
+		}
+
+		/**
+		 * TelephonyManager.NETWORK_TYPE_*,非移动网络时无意义
+		 */
+		public int getSubtype() {
+			return subtype;
+		}
+
+		public boolean isMetered() {
+			return metered;
+		}
+
+		public boolean isWifi() {
+			return type == ConnectivityManager.TYPE_WIFI;
+		}
+
+		public boolean isMobile() {
+			return type == ConnectivityManager.TYPE_MOBILE;
+		}
+
+		public String getIpv4() {
+			return ipv4;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Snapshot))
+				return false;
+			Snapshot other = (Snapshot) o;
+			return connected == other.connected && type == other.type && subtype == other.subtype
+					&& metered == other.metered && ipv4.equals(other.ipv4);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = connected ? 1 : 0;
+			result = 31 * result + type;
+			result = 31 * result + subtype;
+			result = 31 * result + (metered ? 1 : 0);
+			return 31 * result + ipv4.hashCode();
+		}
+	}
+
+	private ConnectivityMonitor(Context context) {
+		this.context = context.getApplicationContext();
+		this.connectivityManager = (ConnectivityManager) this.context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		refresh();
+		register();
+	}
+
+	public static ConnectivityMonitor get(Context context) {
+		if (instance == null) {
+			synchronized (ConnectivityMonitor.class) {
+				if (instance == null) {
+					instance = new ConnectivityMonitor(context);
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * 已初始化时返回实例,否则返回null
+	 */
+	public static ConnectivityMonitor peek() {
+		return instance;
+	}
+
+	public Snapshot snapshot() {
+		return snapshot;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	private void register() {
+		if (connectivityManager == null)
+			return;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+			registerDefaultNetworkCallback();
+		} else {
+			context.registerReceiver(new BroadcastReceiver() {
+				@Override
+				public void onReceive(Context context, Intent intent) {
+					refresh();
+				}
+			}, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.N)
+	private void registerDefaultNetworkCallback() {
+		connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+			// 以下字段只在回调线程中访问
+			private NetworkCapabilities capabilities;
+			private String ipv4 = "";
+
+			@Override
+			public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+				capabilities = networkCapabilities;
+				update(fromCapabilities(network, capabilities, ipv4));
+			}
+
+			@Override
+			public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
+				ipv4 = ipv4Of(linkProperties);
+				if (capabilities != null)
+					update(fromCapabilities(network, capabilities, ipv4));
+			}
+
+			@Override
+			public void onLost(Network network) {
+				capabilities = null;
+				ipv4 = "";
+				update(Snapshot.NONE);
+			}
+		});
+	}
+
+	@TargetApi(Build.VERSION_CODES.N)
+	private Snapshot fromCapabilities(Network network, NetworkCapabilities capabilities, String ipv4) {
+		int type;
+		if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+			type = ConnectivityManager.TYPE_WIFI;
+		} else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+			type = ConnectivityManager.TYPE_MOBILE;
+		} else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+			type = ConnectivityManager.TYPE_ETHERNET;
+		} else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_VPN)) {
+			type = ConnectivityManager.TYPE_VPN;
+		} else {
+			type = -1;
+		}
+		Snapshot current = snapshot;
+		int subtype = current.subtype;
+		if (type == ConnectivityManager.TYPE_MOBILE && current.type != type) {
+			// 移动网络制式不在NetworkCapabilities中,只在切换到移动网络时查询一次
+			NetworkInfo info = connectivityManager.getNetworkInfo(network);
+			subtype = info == null ? -1 : info.getSubtype();
+		} else if (type != ConnectivityManager.TYPE_MOBILE) {
+			subtype = -1;
+		}
+		boolean connected = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+		boolean metered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+		return new Snapshot(connected, type, subtype, metered, connected ? ipv4 : "");
+	}
+
+	private static String ipv4Of(LinkProperties linkProperties) {
+		for (LinkAddress address : linkProperties.getLinkAddresses()) {
+			InetAddress inetAddress = address.getAddress();
+			if (!inetAddress.isLoopbackAddress() && inetAddress instanceof Inet4Address)
+				return inetAddress.getHostAddress();
+		}
+		return "";
+	}
+
+	/**
+	 * 重新读取当前网络的状态,API 24以下在网络变化广播中调用
+	 */
+	void refresh() {
+		Snapshot next = Snapshot.NONE;
+		if (connectivityManager != null) {
+			NetworkInfo info = connectivityManager.getActiveNetworkInfo();
+			if (info != null) {
+				boolean connected = info.isConnected() && info.getState() == NetworkInfo.State.CONNECTED;
+				next = new Snapshot(connected, info.getType(), info.getSubtype(),
+						connectivityManager.isActiveNetworkMetered(), connected ? findIpv4() : "");
+			}
+		}
+		update(next);
+	}
+
+	private void update(final Snapshot next) {
+		if (next.equals(snapshot))
+			return;
+		snapshot = next;
+		if (Looper.myLooper() == Looper.getMainLooper()) {
+			notifyListeners(next);
+		} else {
+			mainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					notifyListeners(next);
+				}
+			});
+		}
+	}
+
+	private void notifyListeners(Snapshot next) {
+		for (Listener listener : listeners) {
+			listener.onChanged(next);
+		}
+	}
+
+	static String findIpv4() {
+		try {
+			for (Enumeration<NetworkInterface> en = NetworkInterface.getNetworkInterfaces(); en.hasMoreElements();) {
+				NetworkInterface intf = en.nextElement();
+				for (Enumeration<InetAddress> enumIpAddr = intf.getInetAddresses(); enumIpAddr.hasMoreElements();) {
+					InetAddress inetAddress = enumIpAddr.nextElement();
+					if (!inetAddress.isLoopbackAddress() && inetAddress instanceof Inet4Address) {
+						return inetAddress.getHostAddress();
+					}
+				}
+			}
+		} catch (Exception e) {
+			LogUtil.d(TAG, "find ipv4 failed: " + e.getMessage());
+		}
+		return "";
+	}
+}
@@ -0,0 +1,122 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.File;
+import java.io.IOException;
+
+import cn.gnsit.wenwan.app.utils.FileDigest;
+import cn.gnsit.wenwan.app.utils.LogUtil;
+import okhttp3.OkHttpClient;
+
+/**
+ * 增量更新阶段:下载增量包,与当前安装包合成新安装包并校验
+ * 任何一步失败都返回false,由调用方回退到完整下载;未下载完的增量包保留,下次续传
+ */
+public class DeltaUpdateStage {
+    private static final String TAG = DeltaUpdateStage.class.getSimpleName();
+
+    private static String installedHash;
+    private static long installedHashStamp;
+
+    private final OkHttpClient client;
+    private final DownloadProfile profile;
+    private final RateLimiter rateLimiter;
+    private final File installedApk;
+    private volatile ApkDownloader patchDownloader;
+    private volatile boolean canceled;
+
+    /**
+     * @param profile     与完整下载相同的网络配置
+     * @param rateLimiter 与完整下载共享的限速器,为null时不限速
+     */
+    public DeltaUpdateStage(OkHttpClient client, DownloadProfile profile, RateLimiter rateLimiter, File installedApk) {
+        this.client = client;
+        this.profile = profile;
+        this.rateLimiter = rateLimiter;
+        this.installedApk = installedApk;
+    }
+
+    /**
+     * 当前安装包的SHA-256,按文件修改时间缓存
+     */
+    public static synchronized String getInstalledHash(File installedApk) throws IOException {
+        long stamp = installedApk.lastModified();
+        if (installedHash == null || installedHashStamp != stamp) {
+            installedHash = FileDigest.sha256(installedApk);
+            installedHashStamp = stamp;
+        }
+        return installedHash;
+    }
+
+    public boolean isApplicable(UpgradeExtras extras) {
+        if (extras == null || !extras.hasPatch())
+            return false;
+        if (extras.getPatchBaseHash() == null)
+            return true;
+        try {
+            return FileDigest.matches(extras.getPatchBaseHash(), getInstalledHash(installedApk));
+        } catch (IOException e) {
+            LogUtil.d(TAG, "hash installed apk failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 阻塞执行,成功时dest为校验通过的新安装包
+     */
+    public boolean run(UpgradeExtras extras, File dest, ApkDownloader.Listener progressListener) {
+        final File patch = new File(dest.getParentFile(), dest.getName() + ".patch");
+        final boolean[] downloaded = new boolean[1];
+        final ApkDownloader.Listener listener = progressListener;
+        patchDownloader = new ResumableDownloader(client, profile, rateLimiter);
+        if (canceled)
+            return false;
+        patchDownloader.download(extras.getPatchUrl(), patch, null, new ApkDownloader.Listener() {
+            @Override
+            public void onProgress(long received, long total) {
+                listener.onProgress(received, total);
+            }
+
+            @Override
+            public void onSuccess(File file) {
+                downloaded[0] = true;
+            }
+
+            @Override
+            public void onError(int code, String message) {
+                LogUtil.d(TAG, "patch download failed " + code + ": " + message);
+            }
+        });
+        patchDownloader = null;
+        boolean discard = false;
+        try {
+            if (!downloaded[0] || canceled)
+                return false;
+            // 下载完成的增量包用过一次即删除,合成失败说明增量包或当前安装包不可用,同样不再保留
+            discard = true;
+            ApkPatcher.apply(installedApk, patch, dest, extras.getTargetHash());
+            // dest已被合成结果覆盖,记录为已校验的完整文件
+            DownloadJournal journal = DownloadJournal.load(dest);
+            journal.reset(null);
+            journal.markComplete(dest, extras.getTargetHash().toLowerCase());
+            journal.save();
+            return true;
+        } catch (IOException e) {
+            LogUtil.d(TAG, "apply patch failed: " + e.getMessage());
+            return false;
+        } finally {
+            // 暂停、取消或网络中断时保留.part和续传日志,恢复后从断点继续下载增量包
+            if (discard) {
+                patch.delete();
+                FileSink.partFileOf(patch).delete();
+                DownloadJournal.load(patch).delete();
+            }
+        }
+    }
+
+    public void cancel() {
+        canceled = true;
+        ApkDownloader current = patchDownloader;
+        if (current != null)
+            current.cancel();
+    }
+}
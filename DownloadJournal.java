@@ -0,0 +1,263 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import cn.gnsit.wenwan.app.utils.FileDigest;
+import cn.gnsit.wenwan.app.utils.LogUtil;
+
+/**
+ * 断点续传日志,与下载文件放在同一目录下(文件名 + ".journal")
+ * 记录下载地址、已接收长度以及服务端的ETag/Last-Modified
+ * 下载完成并校验后保留日志,记录文件的SHA-256,用于下次直接复用已下载的文件;
+ * 分段下载另外记录每个分段的当前位置和结束位置
+ */
+public class DownloadJournal {
+    private static final String TAG = DownloadJournal.class.getSimpleName();
+    private static final String SUFFIX = ".journal";
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_RECEIVED = "received";
+    private static final String KEY_TOTAL = "total";
+    private static final String KEY_COMPLETE = "complete";
+    private static final String KEY_SHA256 = "sha256";
+    private static final String KEY_MODIFIED = "modified";
+    private static final String KEY_SEGMENTS = "segments";
+
+    private final File file;
+
+    private String url;
+    private String etag;
+    private String lastModified;
+    private long received;
+    private long total = -1;
+    private boolean complete;
+    private String sha256;
+    private long modified;
+    private long[] segments;
+
+    private DownloadJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 读取目标文件对应的日志,日志不存在或损坏时返回空日志
+     */
+    public static DownloadJournal load(File target) {
+        DownloadJournal journal = new DownloadJournal(new File(target.getParentFile(), target.getName() + SUFFIX));
+        if (!journal.file.exists())
+            return journal;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(journal.file);
+            Properties properties = new Properties();
+            properties.load(in);
+            journal.url = properties.getProperty(KEY_URL);
+            journal.etag = properties.getProperty(KEY_ETAG);
+            journal.lastModified = properties.getProperty(KEY_LAST_MODIFIED);
+            journal.received = Long.parseLong(properties.getProperty(KEY_RECEIVED, "0"));
+            journal.total = Long.parseLong(properties.getProperty(KEY_TOTAL, "-1"));
+            journal.complete = Boolean.parseBoolean(properties.getProperty(KEY_COMPLETE));
+            journal.sha256 = properties.getProperty(KEY_SHA256);
+            journal.modified = Long.parseLong(properties.getProperty(KEY_MODIFIED, "0"));
+            journal.segments = parseSegments(properties.getProperty(KEY_SEGMENTS));
+        } catch (Exception e) {
+            LogUtil.d(TAG, "journal damaged: " + e.getMessage());
+            journal.reset(null);
+        } finally {
+            closeQuietly(in);
+        }
+        return journal;
+    }
+
+    public void save() {
+        Properties properties = new Properties();
+        if (url != null)
+            properties.setProperty(KEY_URL, url);
+        if (etag != null)
+            properties.setProperty(KEY_ETAG, etag);
+        if (lastModified != null)
+            properties.setProperty(KEY_LAST_MODIFIED, lastModified);
+        properties.setProperty(KEY_RECEIVED, String.valueOf(received));
+        properties.setProperty(KEY_TOTAL, String.valueOf(total));
+        if (segments != null)
+            properties.setProperty(KEY_SEGMENTS, formatSegments(segments));
+        if (complete) {
+            properties.setProperty(KEY_COMPLETE, "true");
+            properties.setProperty(KEY_SHA256, sha256);
+            properties.setProperty(KEY_MODIFIED, String.valueOf(modified));
+        }
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            properties.store(out, null);
+        } catch (IOException e) {
+            LogUtil.d(TAG, "save journal failed: " + e.getMessage());
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    public void delete() {
+        file.delete();
+    }
+
+    public void reset(String url) {
+        this.url = url;
+        this.etag = null;
+        this.lastModified = null;
+        this.received = 0;
+        this.total = -1;
+        this.complete = false;
+        this.sha256 = null;
+        this.modified = 0;
+        this.segments = null;
+    }
+
+    /**
+     * 下载完成并通过校验后调用,随后需要save()
+     */
+    public void markComplete(File target, String sha256) {
+        this.complete = true;
+        this.sha256 = sha256;
+        this.received = target.length();
+        this.total = received;
+        this.modified = target.lastModified();
+        this.segments = null;
+    }
+
+    /**
+     * 不读文件内容,只比较日志中的长度、修改时间和摘要,判断目标文件是否为已校验的完整下载
+     *
+     * @param expectedHash 期望的SHA-256;为null时无法确认服务端没有在同一地址发布新文件,返回false,
+     *                     由调用方通过{@link #loadComplete}取得校验值后向服务端重新验证
+     */
+    public static boolean isComplete(File target, String url, String expectedHash) {
+        if (expectedHash == null)
+            return false;
+        DownloadJournal journal = loadComplete(target, null);
+        return journal != null && FileDigest.matches(expectedHash, journal.sha256);
+    }
+
+    /**
+     * 目标文件为从url下载的完整文件时返回其日志,否则返回null
+     *
+     * @param url 为null时不比较下载地址
+     */
+    public static DownloadJournal loadComplete(File target, String url) {
+        if (!target.exists())
+            return null;
+        DownloadJournal journal = load(target);
+        if (!journal.complete || journal.received != target.length() || journal.modified != target.lastModified())
+            return null;
+        if (url != null && !url.equals(journal.url))
+            return null;
+        return journal;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * 用于If-Range的校验值,优先使用强ETag
+     */
+    public String getValidator() {
+        if (etag != null && !etag.startsWith("W/"))
+            return etag;
+        return lastModified;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public void setReceived(long received) {
+        this.received = received;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * 分段下载的进度,依次为每个分段的[下一个要写的位置, 结束位置(含)],没有时为null
+     */
+    public long[] getSegments() {
+        return segments;
+    }
+
+    public void setSegments(long[] segments) {
+        this.segments = segments;
+    }
+
+    private static long[] parseSegments(String value) {
+        if (value == null || value.length() == 0)
+            return null;
+        String[] fields = value.split(",");
+        if (fields.length % 2 != 0)
+            return null;
+        long[] result = new long[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            result[i] = Long.parseLong(fields[i]);
+        }
+        return result;
+    }
+
+    private static String formatSegments(long[] segments) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append(segments[i]);
+        }
+        return builder.toString();
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
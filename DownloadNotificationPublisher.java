@@ -0,0 +1,100 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * 下载通知进度发布器
+ * 只在百分比变化时刷新通知,并按最小间隔合并更新,替代原来忙等的通知线程
+ */
+public class DownloadNotificationPublisher {
+    public static final long DEFAULT_MIN_INTERVAL = 500;
+
+    public interface Sink {
+        void post(int percent);
+
+        void cancel();
+    }
+
+    private final Sink sink;
+    private final Handler handler;
+    private final long minInterval;
+
+    private volatile int pendingPercent = -1;
+    private volatile boolean closed;
+
+    // 以下字段只在handler线程访问
+    private int postedPercent = -1;
+    private long lastPostTime;
+    private boolean scheduled;
+
+    private final Runnable publishRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            if (closed)
+                return;
+            int percent = pendingPercent;
+            if (percent == postedPercent)
+                return;
+            postedPercent = percent;
+            lastPostTime = SystemClock.uptimeMillis();
+            sink.post(percent);
+        }
+    };
+
+    private final Runnable scheduleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            schedule();
+        }
+    };
+
+    public DownloadNotificationPublisher(Sink sink, Handler handler, long minInterval) {
+        this.sink = sink;
+        this.handler = handler;
+        this.minInterval = minInterval;
+    }
+
+    /**
+     * 可在任意线程调用,百分比未变化时直接忽略
+     */
+    public void onProgress(int percent) {
+        if (closed || percent == pendingPercent)
+            return;
+        pendingPercent = percent;
+        if (handler.getLooper().getThread() == Thread.currentThread()) {
+            schedule();
+        } else {
+            handler.post(scheduleRunnable);
+        }
+    }
+
+    private void schedule() {
+        if (scheduled || closed)
+            return;
+        scheduled = true;
+        long delay = lastPostTime + minInterval - SystemClock.uptimeMillis();
+        if (pendingPercent >= 100 || delay <= 0) {
+            handler.post(publishRunnable);
+        } else {
+            handler.postDelayed(publishRunnable, delay);
+        }
+    }
+
+    /**
+     * 下载成功、失败或服务销毁时调用,之后不再发布任何更新
+     */
+    public void shutdown() {
+        if (closed)
+            return;
+        closed = true;
+        handler.removeCallbacks(scheduleRunnable);
+        handler.removeCallbacks(publishRunnable);
+        sink.cancel();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
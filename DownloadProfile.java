@@ -0,0 +1,70 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.telephony.TelephonyManager;
+
+import java.util.concurrent.TimeUnit;
+
+import cn.gnsit.wenwan.app.utils.ConnectivityMonitor;
+import okhttp3.OkHttpClient;
+
+/**
+ * 按网络类型区分的下载参数:限速、读缓冲区大小和读超时
+ */
+public class DownloadProfile {
+    public static final DownloadProfile WIFI = new DownloadProfile("wifi", RateLimiter.UNLIMITED, 64 * 1024, 15);
+    public static final DownloadProfile MOBILE = new DownloadProfile("mobile", 512 * 1024, 32 * 1024, 20);
+    public static final DownloadProfile SLOW = new DownloadProfile("slow", 16 * 1024, 8 * 1024, 60);
+
+    private final String name;
+    private final long rateLimit;
+    private final int bufferSize;
+    private final long readTimeout;
+
+    public DownloadProfile(String name, long rateLimit, int bufferSize, long readTimeoutSeconds) {
+        this.name = name;
+        this.rateLimit = rateLimit;
+        this.bufferSize = bufferSize;
+        this.readTimeout = readTimeoutSeconds;
+    }
+
+    public static DownloadProfile forNetwork(ConnectivityMonitor.Snapshot snapshot) {
+        if (!snapshot.isMobile())
+            return WIFI;
+        switch (snapshot.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return SLOW;
+            default:
+                return MOBILE;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 每秒字节数,RateLimiter.UNLIMITED表示不限速
+     */
+    public long getRateLimit() {
+        return rateLimit;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * 在共享client的基础上应用读超时,连接池不变
+     */
+    public OkHttpClient configure(OkHttpClient client) {
+        return client.newBuilder().readTimeout(readTimeout, TimeUnit.SECONDS).build();
+    }
+}
@@ -0,0 +1,154 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+
+import cn.gnsit.wenwan.app.utils.LogUtil;
+
+/**
+ * 下载文件的写入端
+ * 数据先写到同目录下的<dest>.part,打开时按Content-Length一次性预留空间,减少闪存上的碎片;
+ * 通过FileChannel按位置写入整块的直接缓冲区,过程中不做flush,完成时只force一次,再原子重命名为目标文件,
+ * 目标文件要么不存在,要么是完整的下载结果
+ */
+public class FileSink implements Closeable {
+    private static final String TAG = FileSink.class.getSimpleName();
+    private static final String PART_SUFFIX = ".part";
+
+    private final File dest;
+    private final File part;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    /**
+     * @param total 文件总长度,未知时传-1,不预留空间
+     */
+    public FileSink(File dest, long total) throws IOException {
+        this.dest = dest;
+        this.part = partFileOf(dest);
+        this.file = new RandomAccessFile(part, "rw");
+        this.channel = file.getChannel();
+        if (total > 0 && file.length() < total)
+            reserve(total);
+    }
+
+    public static File partFileOf(File dest) {
+        return new File(dest.getParentFile(), dest.getName() + PART_SUFFIX);
+    }
+
+    /**
+     * 未完成的下载数据是否足够从offset处续传
+     */
+    public static boolean canResume(File dest, long offset) {
+        File part = partFileOf(dest);
+        return part.exists() && offset <= part.length();
+    }
+
+    public static ByteBuffer allocateBuffer(int size) {
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * 从source读到buffer的limit或流结束,凑成整块后再写入,避免按网络分片大小的小块写;
+     * 调用前由调用方clear并按需设置limit,返回时buffer已flip
+     *
+     * @return 读到的字节数,流已结束且没有读到数据时返回-1
+     */
+    public static int fill(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer);
+            if (read < 0) {
+                if (total == 0)
+                    return -1;
+                break;
+            }
+            total += read;
+        }
+        buffer.flip();
+        return total;
+    }
+
+    /**
+     * 把data的剩余部分写到position处,可在多个线程中对不重叠的区间并发调用
+     */
+    public void write(ByteBuffer data, long position) throws IOException {
+        long writePosition = position;
+        while (data.hasRemaining()) {
+            writePosition += channel.write(data, writePosition);
+        }
+    }
+
+    /**
+     * 用已写入的前length个字节更新digest,续传时补算摘要
+     */
+    public void digest(MessageDigest digest, long length, ByteBuffer buffer) throws IOException {
+        long position = 0;
+        while (position < length) {
+            buffer.clear();
+            if (length - position < buffer.capacity())
+                buffer.limit((int) (length - position));
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("part file shorter than " + length);
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+    }
+
+    /**
+     * 截到length、落盘并重命名为目标文件
+     */
+    public File commit(long length) throws IOException {
+        try {
+            if (channel.size() > length)
+                channel.truncate(length);
+            channel.force(true);
+        } finally {
+            DownloadJournal.closeQuietly(file);
+        }
+        if (!part.renameTo(dest))
+            throw new IOException("rename " + part.getName() + " failed");
+        return dest;
+    }
+
+    /**
+     * 关闭但保留已写入的数据,用于暂停或失败后续传
+     */
+    @Override
+    public void close() {
+        DownloadJournal.closeQuietly(file);
+    }
+
+    /**
+     * 关闭并删除未完成的数据
+     */
+    public void discard() {
+        close();
+        part.delete();
+    }
+
+    private void reserve(long total) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                Os.posix_fallocate(file.getFD(), 0, total);
+                return;
+            } catch (ErrnoException e) {
+                // 部分文件系统(如FAT格式的外置存储)不支持fallocate
+                LogUtil.d(TAG, "fallocate failed: " + e.getMessage());
+            }
+        }
+        file.setLength(total);
+    }
+}
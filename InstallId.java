@@ -0,0 +1,56 @@
+package cn.gnsit.wenwan.app.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * 安装标识,首次使用时生成并保存,卸载重装后才会变化
+ */
+public class InstallId {
+    private static final String PREFS_NAME = "install_id";
+    private static final String KEY_ID = "id";
+
+    private static String id;
+
+    private InstallId() {
+    }
+
+    public static synchronized String get(Context context) {
+        if (id == null) {
+            SharedPreferences prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            id = prefs.getString(KEY_ID, null);
+            if (id == null) {
+                id = UUID.randomUUID().toString();
+                prefs.edit().putString(KEY_ID, id).apply();
+            }
+        }
+        return id;
+    }
+
+    /**
+     * 按安装标识和salt得到[0, 1)之间的稳定值,同一设备同一salt每次结果相同
+     */
+    public static double fraction(Context context, String salt) {
+        return fraction(get(context), salt);
+    }
+
+    public static double fraction(String installId, String salt) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest((installId + ":" + salt).getBytes("UTF-8"));
+            long value = 0;
+            for (int i = 0; i < 6; i++) {
+                value = (value << 8) | (digest[i] & 0xff);
+            }
+            return value / (double) (1L << 48);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
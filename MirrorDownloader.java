@@ -0,0 +1,119 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.File;
+import java.util.List;
+
+import cn.gnsit.wenwan.app.utils.LogUtil;
+import okhttp3.OkHttpClient;
+
+/**
+ * 多镜像下载
+ * 先测速排序,从最快的镜像开始下载;某个镜像失败时换下一个镜像,已下载的部分通过续传日志保留;
+ * 所有镜像都失败后按{@link RetryPolicy}退避,再从头尝试
+ */
+public class MirrorDownloader implements ApkDownloader {
+    private static final String TAG = MirrorDownloader.class.getSimpleName();
+
+    private final OkHttpClient client;
+    private final DownloadProfile profile;
+    private final RateLimiter rateLimiter;
+    private final List<String> mirrors;
+    private final RetryPolicy retryPolicy;
+
+    private final Object lock = new Object();
+    private volatile ApkDownloader current;
+    private volatile boolean canceled;
+
+    /**
+     * @param mirrors 同一安装包的所有下载地址,按服务端给出的优先顺序
+     */
+    public MirrorDownloader(OkHttpClient client, DownloadProfile profile, RateLimiter rateLimiter,
+                            List<String> mirrors, RetryPolicy retryPolicy) {
+        this.client = client;
+        this.profile = profile;
+        this.rateLimiter = rateLimiter;
+        this.mirrors = mirrors;
+        this.retryPolicy = retryPolicy;
+    }
+
+    @Override
+    public void cancel() {
+        synchronized (lock) {
+            canceled = true;
+            lock.notifyAll();
+        }
+        ApkDownloader downloader = current;
+        if (downloader != null)
+            downloader.cancel();
+    }
+
+    /**
+     * url参数被忽略,下载地址取自构造时传入的镜像列表
+     */
+    @Override
+    public void download(String url, File dest, String expectedHash, final Listener listener) {
+        List<String> ranked = MirrorSelector.rank(client, mirrors);
+        final boolean[] success = new boolean[1];
+        final int[] lastCode = {ERROR_IO};
+        final String[] lastMessage = new String[1];
+        Listener attemptListener = new Listener() {
+            @Override
+            public void onProgress(long received, long total) {
+                listener.onProgress(received, total);
+            }
+
+            @Override
+            public void onSuccess(File file) {
+                success[0] = true;
+            }
+
+            @Override
+            public void onError(int code, String message) {
+                lastCode[0] = code;
+                lastMessage[0] = message;
+            }
+        };
+
+        for (int attempt = 1; ; attempt++) {
+            for (String mirror : ranked) {
+                if (canceled) {
+                    listener.onError(ERROR_CANCELED, "canceled");
+                    return;
+                }
+                ResumableDownloader downloader = new ResumableDownloader(client, profile, rateLimiter);
+                downloader.setEquivalentUrls(mirrors);
+                current = downloader;
+                if (canceled)
+                    downloader.cancel();
+                downloader.download(mirror, dest, expectedHash, attemptListener);
+                current = null;
+                if (success[0]) {
+                    listener.onSuccess(dest);
+                    return;
+                }
+                if (lastCode[0] == ERROR_CANCELED || canceled) {
+                    listener.onError(ERROR_CANCELED, "canceled");
+                    return;
+                }
+                LogUtil.d(TAG, "mirror " + mirror + " failed " + lastCode[0] + ", fail over");
+                UpdateMetrics.getInstance().retry(UpdateMetrics.Stage.DOWNLOAD, UpdateMetrics.reasonOf(lastCode[0]));
+            }
+            if (attempt >= retryPolicy.getMaxAttempts() || !RetryPolicy.isRetryable(lastCode[0])) {
+                listener.onError(lastCode[0], lastMessage[0]);
+                return;
+            }
+            long delay = retryPolicy.delayFor(attempt);
+            LogUtil.d(TAG, "all mirrors failed, retry in " + delay + "ms");
+            synchronized (lock) {
+                if (!canceled) {
+                    try {
+                        lock.wait(delay);
+                    } catch (InterruptedException e) {
+                        listener.onError(ERROR_CANCELED, "interrupted");
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
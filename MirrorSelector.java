@@ -0,0 +1,88 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cn.gnsit.wenwan.app.utils.LogUtil;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 镜像测速:在共享的传输线程池中并发向每个镜像请求第一个字节,按响应时间从快到慢排序,失败或超时的排在最后并保持原有顺序
+ */
+public class MirrorSelector {
+    private static final String TAG = MirrorSelector.class.getSimpleName();
+    private static final long PROBE_TIMEOUT = 2000;
+
+    private MirrorSelector() {
+    }
+
+    public static List<String> rank(OkHttpClient client, List<String> urls) {
+        if (urls.size() <= 1)
+            return new ArrayList<>(urls);
+        final OkHttpClient probeClient = client.newBuilder()
+                .connectTimeout(PROBE_TIMEOUT, TimeUnit.MILLISECONDS)
+                .readTimeout(PROBE_TIMEOUT, TimeUnit.MILLISECONDS)
+                .build();
+        final long[] latency = new long[urls.size()];
+        final CountDownLatch latch = new CountDownLatch(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            final int index = i;
+            final String url = urls.get(i);
+            latency[index] = Long.MAX_VALUE;
+            UpdateExecutors.transfer().execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    Response response = null;
+                    try {
+                        response = probeClient.newCall(new Request.Builder().url(url)
+                                .header("Range", "bytes=0-0").build()).execute();
+                        if (response.isSuccessful()) {
+                            synchronized (latency) {
+                                latency[index] = System.nanoTime() - start;
+                            }
+                        }
+                    } catch (Exception e) {
+                        LogUtil.d(TAG, "probe " + url + " failed: " + e.getMessage());
+                    } finally {
+                        if (response != null)
+                            response.close();
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        try {
+            latch.await(PROBE_TIMEOUT * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ignored) {
+        }
+        final long[] result;
+        synchronized (latency) {
+            result = latency.clone();
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                if (result[lhs] != result[rhs])
+                    return result[lhs] < result[rhs] ? -1 : 1;
+                return lhs - rhs;
+            }
+        });
+        List<String> ranked = new ArrayList<>();
+        for (Integer index : order) {
+            ranked.add(urls.get(index));
+        }
+        LogUtil.d(TAG, "mirror order " + ranked);
+        return ranked;
+    }
+}
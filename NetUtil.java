@@ -4,13 +4,6 @@ import android.app.Activity;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-
-import java.net.Inet4Address;
-import java.net.InetAddress;
-import java.net.NetworkInterface;
-import java.util.Enumeration;
 
 public class NetUtil {
 
@@ -22,41 +15,21 @@ public class NetUtil {
 	 * @return
 	 */
 	public static boolean isConnected(Context context) {
-
-		ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-		if (null != connectivity) {
-			NetworkInfo info = connectivity.getActiveNetworkInfo();
-			if (null != info && info.isConnected()) {
-				if (info.getState() == NetworkInfo.State.CONNECTED) {
-					return true;
-				}
-			}
-		}
-		return false;
+		return ConnectivityMonitor.get(context).snapshot().isConnected();
 	}
 
 	/**
 	 * 判断是否是wifi连接
 	 */
 	public static boolean isWifi(Context context) {
-		ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-		if (cm == null || cm.getActiveNetworkInfo() == null)
-			return false;
-		else
-			return cm.getActiveNetworkInfo().getType() == ConnectivityManager.TYPE_WIFI;
-
+		return ConnectivityMonitor.get(context).snapshot().isWifi();
 	}
 
 	/**
 	 * 判断是否是手机连接
 	 */
 	public static boolean isMobile(Context context) {
-		ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-		if (cm == null || cm.getActiveNetworkInfo() == null)
-			return false;
-		else
-			return cm.getActiveNetworkInfo().getType() == ConnectivityManager.TYPE_MOBILE;
-
+		return ConnectivityMonitor.get(context).snapshot().isMobile();
 	}
 
 	/**
@@ -75,35 +48,24 @@ public class NetUtil {
 	 * @return
 	 */
 	public static int getNetType(Context context) {
-		ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-		if (cm == null || cm.getActiveNetworkInfo() == null)
-			return -1;
-		else
-			return cm.getActiveNetworkInfo().getType();
+		return ConnectivityMonitor.get(context).snapshot().getType();
+	}
 
+	/**
+	 * 当前网络是否按流量计费
+	 */
+	public static boolean isMetered(Context context) {
+		return ConnectivityMonitor.get(context).snapshot().isMetered();
 	}
 
 	/**
-	 * 获取手机ip
+	 * 获取手机ip,取自网络变化时缓存的地址,尚未初始化监听时直接查询
 	 * 
 	 * @return
 	 */
 	public static String getPhoneIp() {
-		try {
-			for (Enumeration<NetworkInterface> en = NetworkInterface.getNetworkInterfaces(); en.hasMoreElements();) {
-				NetworkInterface intf = en.nextElement();
-				for (Enumeration<InetAddress> enumIpAddr = intf.getInetAddresses(); enumIpAddr.hasMoreElements();) {
-					InetAddress inetAddress = enumIpAddr.nextElement();
-					if (!inetAddress.isLoopbackAddress() && inetAddress instanceof Inet4Address) {
-						// if (!inetAddress.isLoopbackAddress() && inetAddress
-						// instanceof Inet6Address) {
-						return inetAddress.getHostAddress().toString();
-					}
-				}
-			}
-		} catch (Exception e) {
-		}
-		return "";
+		ConnectivityMonitor monitor = ConnectivityMonitor.peek();
+		return monitor == null ? ConnectivityMonitor.findIpv4() : monitor.snapshot().getIpv4();
 	}
 
 	/**
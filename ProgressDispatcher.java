@@ -0,0 +1,158 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 下载进度分发
+ * 下载线程每读一次缓冲区都会上报进度,这里合并为每个百分点、每帧最多一次,帧内被丢弃的进度在帧结束时补发最新的一次,
+ * 100%和成功/失败始终送达,并在指定的Executor(默认主线程)上回调
+ */
+public class ProgressDispatcher {
+    public static final long FRAME_INTERVAL = 16;
+
+    private static final Handler timer = new Handler(Looper.getMainLooper());
+
+    private final Executor executor;
+    private final VersionUpdateService.DownLoadListener target;
+
+    private volatile long pendingReceived;
+    private volatile long pendingTotal;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean finished;
+    // 成功/失败已经回调,在回调线程中设置,之后到达的进度不再送达
+    private volatile boolean terminalDelivered;
+
+    // 以下字段在this上同步,由上报线程和补发定时器访问
+    private int submittedPercent = -1;
+    private long lastSubmitTime;
+    private boolean hasTrailing;
+    private boolean trailingScheduled;
+    private long trailingReceived;
+    private long trailingTotal;
+    private int trailingPercent;
+
+    private final Runnable flushTrailing = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ProgressDispatcher.this) {
+                trailingScheduled = false;
+                if (finished || !hasTrailing)
+                    return;
+                submit(trailingReceived, trailingTotal, trailingPercent, SystemClock.uptimeMillis());
+            }
+        }
+    };
+
+    private final Runnable deliverProgress = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            if (terminalDelivered)
+                return;
+            deliverPending();
+        }
+    };
+
+    public ProgressDispatcher(Executor executor, VersionUpdateService.DownLoadListener target) {
+        this.executor = executor;
+        this.target = target;
+    }
+
+    public static Executor looperExecutor(Looper looper) {
+        final Handler handler = new Handler(looper);
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
+    public void begin() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                target.begain();
+            }
+        });
+    }
+
+    /**
+     * 可在任意线程调用,未跨越新百分点时直接丢弃;距上次提交不足一帧时只记下,帧结束时补发
+     */
+    public synchronized void progress(long received, long total) {
+        if (finished || total <= 0)
+            return;
+        int percent = (int) (received * 100 / total);
+        if (percent == submittedPercent) {
+            hasTrailing = false;
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (percent < 100 && now - lastSubmitTime < FRAME_INTERVAL) {
+            // 之后可能不再有进度(断流或下载结束),不补发的话界面会停在旧值
+            trailingReceived = received;
+            trailingTotal = total;
+            trailingPercent = percent;
+            hasTrailing = true;
+            if (!trailingScheduled) {
+                trailingScheduled = true;
+                timer.postDelayed(flushTrailing, FRAME_INTERVAL - (now - lastSubmitTime));
+            }
+            return;
+        }
+        submit(received, total, percent, now);
+    }
+
+    private void submit(long received, long total, int percent, long now) {
+        hasTrailing = false;
+        pendingTotal = total;
+        pendingReceived = received;
+        submittedPercent = percent;
+        lastSubmitTime = now;
+        if (scheduled.compareAndSet(false, true))
+            executor.execute(deliverProgress);
+    }
+
+    public void success(final File file) {
+        if (finished)
+            return;
+        finished = true;
+        timer.removeCallbacks(flushTrailing);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Executor不保证先后顺序时,在这里补发尚未送达的最后一次进度(通常是100%)
+                if (scheduled.getAndSet(false))
+                    deliverPending();
+                terminalDelivered = true;
+                target.downLoadLatestSuccess(file);
+            }
+        });
+    }
+
+    public void failed() {
+        if (finished)
+            return;
+        finished = true;
+        timer.removeCallbacks(flushTrailing);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                terminalDelivered = true;
+                target.downLoadLatestFailed();
+            }
+        });
+    }
+
+    private void deliverPending() {
+        long total = pendingTotal;
+        target.inProgress((float) pendingReceived / total, total);
+    }
+}
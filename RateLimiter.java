@@ -0,0 +1,58 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.InterruptedIOException;
+
+/**
+ * 令牌桶限速,可在多个下载线程间共享,速率可随时调整
+ * 令牌不足时允许透支,由透支的线程按透支量休眠,总速率不超过设定值
+ */
+public class RateLimiter {
+    public static final long UNLIMITED = 0;
+
+    private static final double BURST_SECONDS = 0.25;
+
+    private volatile long bytesPerSecond;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param bytesPerSecond 每秒字节数,UNLIMITED表示不限速
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        tokens = 0;
+        lastRefill = System.nanoTime();
+    }
+
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * 消耗bytes个令牌,令牌不足时阻塞到令牌补足为止
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        long sleepNanos;
+        synchronized (this) {
+            long rate = bytesPerSecond;
+            if (rate <= UNLIMITED)
+                return;
+            long now = System.nanoTime();
+            tokens = Math.min(rate * BURST_SECONDS, tokens + (now - lastRefill) * rate / 1e9);
+            lastRefill = now;
+            tokens -= bytes;
+            if (tokens >= 0)
+                return;
+            sleepNanos = (long) (-tokens * 1e9 / rate);
+        }
+        try {
+            Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("rate limiter interrupted");
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.List;
+
+import cn.gnsit.wenwan.app.utils.FileDigest;
+import cn.gnsit.wenwan.app.utils.LogUtil;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * 支持断点续传的下载器
+ * 已接收的长度和ETag/Last-Modified记录在{@link DownloadJournal}中,再次下载时通过Range/If-Range续传,
+ * 服务端不支持或文件已变化时自动回退为完整下载
+ * 写入的同时计算SHA-256,校验不需要再读一遍文件;数据经{@link FileSink}写入,校验通过后才出现在目标路径
+ */
+public class ResumableDownloader implements ApkDownloader {
+    private static final String TAG = ResumableDownloader.class.getSimpleName();
+
+    private static final long JOURNAL_SAVE_BYTES = 256 * 1024;
+
+    private final OkHttpClient client;
+    private final int bufferSize;
+    private final RateLimiter rateLimiter;
+    private volatile Call call;
+    private volatile boolean canceled;
+    private Collection<String> equivalentUrls;
+
+    public ResumableDownloader(OkHttpClient client) {
+        this(client, DownloadProfile.WIFI, null);
+    }
+
+    /**
+     * @param rateLimiter 为null时不限速
+     */
+    public ResumableDownloader(OkHttpClient client, DownloadProfile profile, RateLimiter rateLimiter) {
+        this.client = profile.configure(client);
+        this.bufferSize = profile.getBufferSize();
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * 内容相同的其他地址(镜像),从这些地址下载的部分也可以续传;
+     * 不同镜像的ETag不可比较,因此跨镜像续传不带If-Range,只在提供了expectedHash时启用,由最终校验保证正确
+     */
+    public void setEquivalentUrls(Collection<String> equivalentUrls) {
+        this.equivalentUrls = equivalentUrls;
+    }
+
+    @Override
+    public void cancel() {
+        canceled = true;
+        Call current = call;
+        if (current != null)
+            current.cancel();
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    @Override
+    public void download(String url, File dest, String expectedHash, Listener listener) {
+        if (DownloadJournal.isComplete(dest, url, expectedHash)
+                || (expectedHash == null && isUnchanged(client, url, dest))) {
+            listener.onSuccess(dest);
+            return;
+        }
+        DownloadJournal journal = DownloadJournal.load(dest);
+        boolean crossMirror = journal.getUrl() != null && !url.equals(journal.getUrl())
+                && expectedHash != null && equivalentUrls != null && equivalentUrls.contains(journal.getUrl());
+        long offset = 0;
+        // 分段下载留下的数据不连续,不能按received续传
+        if (!journal.isComplete() && journal.getSegments() == null && (url.equals(journal.getUrl()) || crossMirror) && journal.getReceived() > 0
+                && FileSink.canResume(dest, journal.getReceived())) {
+            offset = journal.getReceived();
+            if (crossMirror) {
+                LogUtil.d(TAG, "resume from mirror " + journal.getUrl());
+                journal.setUrl(url);
+                journal.setEtag(null);
+                journal.setLastModified(null);
+            }
+        } else {
+            journal.reset(url);
+        }
+
+        Response response = null;
+        FileSink sink = null;
+        try {
+            response = execute(url, offset, journal);
+            int code = response.code();
+            if (offset > 0 && code == 416) {
+                // 服务端拒绝该区间,丢弃本地数据重新下载
+                LogUtil.d(TAG, "range rejected, restart from 0");
+                response.close();
+                offset = 0;
+                journal.reset(url);
+                response = execute(url, 0, journal);
+                code = response.code();
+            }
+            if (code == 206 && contentRangeStart(response) != offset) {
+                // 返回区间的起点与请求的不一致,这段数据接不到本地文件后面,丢弃后不带Range重新请求完整文件
+                LogUtil.d(TAG, "content range " + response.header("Content-Range") + " does not start at " + offset);
+                response.close();
+                offset = 0;
+                journal.reset(url);
+                response = execute(url, 0, journal);
+                code = response.code();
+                if (code == 206 && contentRangeStart(response) != 0) {
+                    listener.onError(ERROR_IO, "unexpected content range " + response.header("Content-Range"));
+                    return;
+                }
+            }
+            if (code != 200 && code != 206) {
+                listener.onError(code, response.message());
+                return;
+            }
+            if (code == 200 && offset > 0) {
+                // 服务端忽略了Range或If-Range校验失败,返回的是完整文件
+                offset = 0;
+                journal.reset(url);
+            }
+
+            ResponseBody body = response.body();
+            long length = body.contentLength();
+            journal.setEtag(response.header("ETag"));
+            journal.setLastModified(response.header("Last-Modified"));
+            journal.setTotal(length < 0 ? -1 : offset + length);
+            journal.setReceived(offset);
+            journal.save();
+            listener.onProgress(offset, journal.getTotal());
+
+            sink = new FileSink(dest, journal.getTotal());
+            // 边写边计算摘要,续传时只需补算已有部分
+            MessageDigest digest = FileDigest.newSha256();
+            ByteBuffer buffer = FileSink.allocateBuffer(bufferSize);
+            sink.digest(digest, offset, buffer);
+
+            BufferedSource source = body.source();
+            long received = offset;
+            long unsaved = 0;
+            int read;
+            while ((read = FileSink.fill(source, (ByteBuffer) buffer.clear())) != -1) {
+                if (rateLimiter != null)
+                    rateLimiter.acquire(read);
+                buffer.mark();
+                digest.update(buffer);
+                buffer.reset();
+                sink.write(buffer, received);
+                received += read;
+                unsaved += read;
+                journal.setReceived(received);
+                if (unsaved >= JOURNAL_SAVE_BYTES) {
+                    journal.save();
+                    unsaved = 0;
+                }
+                listener.onProgress(received, journal.getTotal());
+            }
+            if (journal.getTotal() >= 0 && received != journal.getTotal()) {
+                journal.save();
+                listener.onError(ERROR_IO, "unexpected end of stream");
+                return;
+            }
+            String actual = FileDigest.toHex(digest.digest());
+            if (expectedHash != null && !FileDigest.matches(expectedHash, actual)) {
+                LogUtil.d(TAG, "hash mismatch " + actual);
+                sink.discard();
+                sink = null;
+                journal.delete();
+                listener.onError(ERROR_VERIFY, "hash mismatch");
+                return;
+            }
+            sink.commit(received);
+            sink = null;
+            journal.markComplete(dest, actual);
+            journal.save();
+            listener.onSuccess(dest);
+        } catch (IOException e) {
+            LogUtil.d(TAG, "download interrupted: " + e.getMessage());
+            if (journal.getReceived() > 0)
+                journal.save();
+            listener.onError(canceled ? ERROR_CANCELED : ERROR_IO, e.getMessage());
+        } finally {
+            if (sink != null)
+                sink.close();
+            if (response != null)
+                response.close();
+            call = null;
+        }
+    }
+
+    /**
+     * 重新下载已完成文件中的若干区间并原地覆盖,完成后重新计算摘要;
+     * 服务端文件已变化(If-Range不匹配)或任一区间失败时返回false,调用方应删除文件重新下载
+     */
+    public boolean repair(String url, File dest, List<ApkValidator.Range> ranges) {
+        DownloadJournal journal = DownloadJournal.load(dest);
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(dest, "rw");
+            FileChannel channel = file.getChannel();
+            ByteBuffer buffer = FileSink.allocateBuffer(bufferSize);
+            for (ApkValidator.Range range : ranges) {
+                LogUtil.d(TAG, "repair range " + range);
+                Response response = executeRange(url, range, journal.getValidator());
+                try {
+                    if (response.code() != 206 || contentRangeStart(response) != range.getStart())
+                        return false;
+                    BufferedSource source = response.body().source();
+                    long position = range.getStart();
+                    while (position < range.getEnd()) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(buffer.capacity(), range.getEnd() - position));
+                        int read = FileSink.fill(source, buffer);
+                        if (read == -1)
+                            return false;
+                        if (rateLimiter != null)
+                            rateLimiter.acquire(read);
+                        while (buffer.hasRemaining()) {
+                            position += channel.write(buffer, position);
+                        }
+                    }
+                } finally {
+                    response.close();
+                }
+            }
+            channel.force(true);
+            file.close();
+            file = null;
+            journal.markComplete(dest, FileDigest.sha256(dest));
+            journal.save();
+            return true;
+        } catch (IOException e) {
+            LogUtil.d(TAG, "repair failed: " + e.getMessage());
+            return false;
+        } finally {
+            DownloadJournal.closeQuietly(file);
+            call = null;
+        }
+    }
+
+    /**
+     * 没有期望摘要时,用日志中记录的ETag/Last-Modified发条件HEAD请求,服务端返回304才复用已下载的文件
+     */
+    static boolean isUnchanged(OkHttpClient client, String url, File dest) {
+        DownloadJournal journal = DownloadJournal.loadComplete(dest, url);
+        if (journal == null || (journal.getEtag() == null && journal.getLastModified() == null))
+            return false;
+        Request.Builder builder = new Request.Builder().url(url).head();
+        if (journal.getEtag() != null)
+            builder.header("If-None-Match", journal.getEtag());
+        if (journal.getLastModified() != null)
+            builder.header("If-Modified-Since", journal.getLastModified());
+        try {
+            Response response = client.newCall(builder.build()).execute();
+            response.close();
+            LogUtil.d(TAG, "revalidate " + dest.getName() + ": " + response.code());
+            return response.code() == 304;
+        } catch (IOException e) {
+            LogUtil.d(TAG, "revalidate failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private Response executeRange(String url, ApkValidator.Range range, String validator) throws IOException {
+        if (canceled)
+            throw new IOException("Canceled");
+        Request.Builder builder = new Request.Builder().url(url)
+                .header("Range", "bytes=" + range.getStart() + "-" + (range.getEnd() - 1));
+        if (validator != null)
+            builder.header("If-Range", validator);
+        call = client.newCall(builder.build());
+        return call.execute();
+    }
+
+    private Response execute(String url, long offset, DownloadJournal journal) throws IOException {
+        if (canceled)
+            throw new IOException("Canceled");
+        Request.Builder builder = new Request.Builder().url(url);
+        if (offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-");
+            String validator = journal.getValidator();
+            if (validator != null)
+                builder.header("If-Range", validator);
+        }
+        call = client.newCall(builder.build());
+        return call.execute();
+    }
+
+    /**
+     * 解析Content-Range: bytes start-end/total中的start,缺失时返回-1
+     */
+    static long contentRangeStart(Response response) {
+        String range = response.header("Content-Range");
+        if (range == null || !range.startsWith("bytes "))
+            return -1;
+        int dash = range.indexOf('-');
+        if (dash < 0)
+            return -1;
+        try {
+            return Long.parseLong(range.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
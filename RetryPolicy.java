@@ -0,0 +1,45 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.util.Random;
+
+/**
+ * 指数退避重试策略,每次等待时间在[0, min(maxDelay, baseDelay * 2^(attempt-1)))之间随机(full jitter)
+ */
+public class RetryPolicy {
+    public static final RetryPolicy DEFAULT = new RetryPolicy(4, 1000, 30 * 1000);
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final Random random = new Random();
+
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 第attempt次重试前的等待时间(毫秒),attempt从1开始
+     */
+    public long delayFor(int attempt) {
+        long cap = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 20));
+        synchronized (random) {
+            return (long) (random.nextDouble() * cap);
+        }
+    }
+
+    /**
+     * 是否值得退避后重试,只有传输错误:5xx、408、429以及{@link ApkDownloader#ERROR_IO};
+     * 取消和摘要校验失败等本地错误重试也不会成功,校验失败时每次重试都要重新下载整个文件
+     */
+    public static boolean isRetryable(int code) {
+        if (code == ApkDownloader.ERROR_IO)
+            return true;
+        return code >= 500 || code == 408 || code == 429;
+    }
+}
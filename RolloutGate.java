@@ -0,0 +1,50 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.content.Context;
+
+import cn.gnsit.wenwan.app.model.VersionUpdateModel;
+import cn.gnsit.wenwan.app.utils.InstallId;
+
+/**
+ * 灰度发布
+ * 设备按安装标识和版本号稳定地落入[0, 100)中的某个位置,小于当前放量比例的设备才提示更新;
+ * 配置了放量时间窗口时,比例在窗口内从0线性增长到rolloutPercent;强制更新不受限制
+ */
+public class RolloutGate {
+
+    private RolloutGate() {
+    }
+
+    public static boolean isEligible(Context context, VersionUpdateModel model, UpgradeExtras extras) {
+        if (model.isMustUpgrade() || extras == null)
+            return true;
+        return isEligible(InstallId.get(context), model.getBuild(), extras, System.currentTimeMillis());
+    }
+
+    static boolean isEligible(String installId, int build, UpgradeExtras extras, long now) {
+        double percent = currentPercent(extras, now);
+        if (percent >= 100)
+            return true;
+        if (percent <= 0)
+            return false;
+        return bucket(installId, build) < percent;
+    }
+
+    /**
+     * 设备在本次发布中的位置,范围[0, 100)
+     */
+    static double bucket(String installId, int build) {
+        return InstallId.fraction(installId, "rollout" + build) * 100;
+    }
+
+    static double currentPercent(UpgradeExtras extras, long now) {
+        int percent = extras.getRolloutPercent();
+        long start = extras.getRolloutStart();
+        long end = extras.getRolloutEnd();
+        if (start <= 0 || end <= start || now >= end)
+            return percent;
+        if (now <= start)
+            return 0;
+        return percent * (double) (now - start) / (end - start);
+    }
+}
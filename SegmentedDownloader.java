@@ -0,0 +1,372 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.net.ConnectivityManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cn.gnsit.wenwan.app.utils.FileDigest;
+import cn.gnsit.wenwan.app.utils.LogUtil;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+
+/**
+ * 多连接分段下载器
+ * 先用Range: bytes=0-0探测文件长度,通过{@link FileSink}预分配文件后按区间并发下载,各分段按位置写入,
+ * 分段失败时单独重试;服务端不支持Range时回退到{@link ResumableDownloader}
+ * 各分段写到的位置定期记录在{@link DownloadJournal}中,暂停、取消或失败后保留<dest>.part,文件未变化时按分段续传
+ */
+public class SegmentedDownloader implements ApkDownloader {
+    private static final String TAG = SegmentedDownloader.class.getSimpleName();
+
+    private static final int MAX_RETRY = 3;
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final long JOURNAL_SAVE_BYTES = 1024 * 1024;
+
+    private final OkHttpClient client;
+    private final DownloadProfile profile;
+    private final RateLimiter rateLimiter;
+    private final int segmentCount;
+    private final List<Call> calls = new CopyOnWriteArrayList<>();
+    private volatile boolean canceled;
+    private volatile ApkDownloader fallback;
+
+    private final AtomicLong received = new AtomicLong();
+    private final Object progressLock = new Object();
+    private long reported;
+    private long savedAt;
+    // 以下两个字段在progressLock内访问
+    private DownloadJournal journal;
+    private List<SegmentTask> tasks;
+
+    /**
+     * @param rateLimiter 所有分段共享的限速器,为null时不限速
+     */
+    public SegmentedDownloader(OkHttpClient client, DownloadProfile profile, RateLimiter rateLimiter, int segmentCount) {
+        this.client = profile.configure(client);
+        this.profile = profile;
+        this.rateLimiter = rateLimiter;
+        this.segmentCount = Math.max(1, segmentCount);
+    }
+
+    /**
+     * 根据{@link cn.gnsit.wenwan.app.utils.NetUtil#getNetType}的结果决定分段数
+     */
+    public static int segmentCountFor(int netType) {
+        switch (netType) {
+            case ConnectivityManager.TYPE_WIFI:
+            case ConnectivityManager.TYPE_ETHERNET:
+                return 4;
+            case ConnectivityManager.TYPE_MOBILE:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    @Override
+    public void cancel() {
+        canceled = true;
+        for (Call call : calls) {
+            call.cancel();
+        }
+        ApkDownloader current = fallback;
+        if (current != null)
+            current.cancel();
+    }
+
+    @Override
+    public void download(String url, File dest, String expectedHash, Listener listener) {
+        if (DownloadJournal.isComplete(dest, url, expectedHash)
+                || (expectedHash == null && ResumableDownloader.isUnchanged(client, url, dest))) {
+            listener.onSuccess(dest);
+            return;
+        }
+        long total;
+        String etag;
+        String lastModified;
+        String validator;
+        try {
+            Call call = newCall(url, 0, 0, null);
+            Response probe = call.execute();
+            try {
+                total = probe.code() == 206 ? contentRangeTotal(probe) : -1;
+                etag = probe.header("ETag");
+                lastModified = probe.header("Last-Modified");
+                validator = etag == null || etag.startsWith("W/") ? lastModified : etag;
+            } finally {
+                probe.close();
+                calls.remove(call);
+            }
+        } catch (IOException e) {
+            listener.onError(canceled ? ERROR_CANCELED : ERROR_IO, e.getMessage());
+            return;
+        }
+
+        DownloadJournal journal = DownloadJournal.load(dest);
+        long[] saved = resumableSegments(journal, url, validator, total, dest);
+        int count = saved != null ? saved.length / 2
+                : total > 0 ? (int) Math.min(segmentCount, total / MIN_SEGMENT_SIZE) : 1;
+        if (count <= 1) {
+            LogUtil.d(TAG, "range not supported or file too small, single connection");
+            fallback = new ResumableDownloader(client, profile, rateLimiter);
+            if (canceled)
+                fallback.cancel();
+            fallback.download(url, dest, expectedHash, listener);
+            return;
+        }
+
+        FileSink sink = null;
+        List<SegmentTask> tasks = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            if (saved == null) {
+                journal.reset(url);
+                journal.setEtag(etag);
+                journal.setLastModified(lastModified);
+                journal.setTotal(total);
+            }
+            sink = new FileSink(dest, total);
+
+            long segmentSize = total / count;
+            long resumed = 0;
+            for (int i = 0; i < count; i++) {
+                long start;
+                long end;
+                if (saved != null) {
+                    start = saved[i * 2];
+                    end = saved[i * 2 + 1];
+                    resumed += start - (i == 0 ? 0 : saved[i * 2 - 1] + 1);
+                } else {
+                    start = i * segmentSize;
+                    end = i == count - 1 ? total - 1 : start + segmentSize - 1;
+                }
+                tasks.add(new SegmentTask(url, validator, sink, start, end, total, listener));
+            }
+            if (saved != null)
+                LogUtil.d(TAG, "resume " + count + " segments from " + resumed + " bytes");
+            received.set(resumed);
+            reported = resumed;
+            savedAt = resumed;
+            this.journal = journal;
+            this.tasks = tasks;
+            saveSegments();
+            listener.onProgress(resumed, total);
+            for (SegmentTask task : tasks) {
+                futures.add(UpdateExecutors.transfer().submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            // 分段乱序写入无法边写边算,完成后补算一次摘要
+            MessageDigest digest = FileDigest.newSha256();
+            sink.digest(digest, total, FileSink.allocateBuffer(profile.getBufferSize()));
+            String actual = FileDigest.toHex(digest.digest());
+            if (expectedHash != null && !FileDigest.matches(expectedHash, actual)) {
+                LogUtil.d(TAG, "hash mismatch " + actual);
+                sink.discard();
+                sink = null;
+                journal.delete();
+                listener.onError(ERROR_VERIFY, "hash mismatch");
+                return;
+            }
+            sink.commit(total);
+            sink = null;
+            synchronized (progressLock) {
+                this.tasks = null;
+                journal.markComplete(dest, actual);
+                journal.save();
+            }
+        } catch (Exception e) {
+            boolean wasCanceled = canceled;
+            cancel();
+            LogUtil.d(TAG, "segmented download failed: " + e.getMessage());
+            // 暂停、取消和网络错误都保留已写入的分段,下次按日志中的位置续传
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (Exception ignored) {
+                }
+            }
+            saveSegments();
+            listener.onError(wasCanceled ? ERROR_CANCELED : ERROR_IO, e.getMessage());
+            return;
+        } finally {
+            // 分段任务在共享线程池中执行,结束时逐个取消,未开始的不再执行
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            if (sink != null)
+                sink.close();
+        }
+        listener.onSuccess(dest);
+    }
+
+    /**
+     * 日志中的分段进度与本次探测到的文件一致(同一地址、同一校验值、同样长度)且数据仍在时返回,否则返回null
+     */
+    private static long[] resumableSegments(DownloadJournal journal, String url, String validator, long total, File dest) {
+        long[] segments = journal.getSegments();
+        if (segments == null || segments.length < 4 || journal.isComplete())
+            return null;
+        if (!url.equals(journal.getUrl()) || validator == null || !validator.equals(journal.getValidator()))
+            return null;
+        if (total <= 0 || journal.getTotal() != total || !FileSink.canResume(dest, total))
+            return null;
+        return segments;
+    }
+
+    /**
+     * 把各分段当前写到的位置记录到日志
+     */
+    private void saveSegments() {
+        synchronized (progressLock) {
+            List<SegmentTask> current = tasks;
+            if (current == null || journal == null)
+                return;
+            long[] segments = new long[current.size() * 2];
+            for (int i = 0; i < current.size(); i++) {
+                segments[i * 2] = current.get(i).position;
+                segments[i * 2 + 1] = current.get(i).end;
+            }
+            journal.setSegments(segments);
+            journal.setReceived(received.get());
+            journal.save();
+        }
+    }
+
+    private class SegmentTask implements Runnable {
+        private final String url;
+        private final String validator;
+        private final FileSink sink;
+        private final long end;
+        private final long total;
+        private final Listener listener;
+        // 只在已写入后前移,保存日志时从其他线程读取
+        private volatile long position;
+
+        SegmentTask(String url, String validator, FileSink sink, long start, long end, long total, Listener listener) {
+            this.url = url;
+            this.validator = validator;
+            this.sink = sink;
+            this.position = start;
+            this.end = end;
+            this.total = total;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            int retry = 0;
+            while (position <= end) {
+                if (canceled)
+                    throw new SegmentException("canceled");
+                try {
+                    fetch();
+                } catch (IOException e) {
+                    if (canceled || ++retry > MAX_RETRY)
+                        throw new SegmentException("segment " + position + "-" + end + " failed: " + e.getMessage());
+                    LogUtil.d(TAG, "retry segment " + position + "-" + end + " (" + retry + ")");
+                    UpdateMetrics.getInstance().retry(UpdateMetrics.Stage.DOWNLOAD, UpdateMetrics.REASON_IO);
+                }
+            }
+        }
+
+        private void fetch() throws IOException {
+            Call call = newCall(url, position, end, validator);
+            Response response = call.execute();
+            try {
+                if (response.code() != 206 || ResumableDownloader.contentRangeStart(response) != position)
+                    throw new SegmentException("range rejected: " + response.code());
+                BufferedSource source = response.body().source();
+                ByteBuffer buffer = FileSink.allocateBuffer(profile.getBufferSize());
+                int read;
+                while (position <= end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position + 1));
+                    if ((read = FileSink.fill(source, buffer)) == -1)
+                        break;
+                    if (rateLimiter != null)
+                        rateLimiter.acquire(read);
+                    sink.write(buffer, position);
+                    position += read;
+                    reportProgress(read, total, listener);
+                }
+                if (position <= end)
+                    throw new IOException("unexpected end of stream");
+            } finally {
+                response.close();
+                calls.remove(call);
+            }
+        }
+    }
+
+    /**
+     * 服务端拒绝分段请求,不再重试
+     */
+    private static class SegmentException extends RuntimeException {
+        SegmentException(String message) {
+            super(message);
+        }
+    }
+
+    private void reportProgress(int delta, long total, Listener listener) {
+        long now = received.addAndGet(delta);
+        boolean save;
+        synchronized (progressLock) {
+            if (now <= reported)
+                return;
+            reported = now;
+            listener.onProgress(now, total);
+            save = now - savedAt >= JOURNAL_SAVE_BYTES;
+            if (save)
+                savedAt = now;
+        }
+        if (save)
+            saveSegments();
+    }
+
+    /**
+     * 创建的请求登记在calls中以便cancel时中断,请求结束后由调用方移除
+     */
+    private Call newCall(String url, long start, long end, String validator) throws IOException {
+        if (canceled)
+            throw new IOException("Canceled");
+        Request.Builder builder = new Request.Builder().url(url)
+                .header("Range", "bytes=" + start + "-" + end);
+        if (validator != null)
+            builder.header("If-Range", validator);
+        Call call = client.newCall(builder.build());
+        calls.add(call);
+        if (canceled)
+            call.cancel();
+        return call;
+    }
+
+    /**
+     * 解析Content-Range: bytes start-end/total中的total,未知时返回-1
+     */
+    static long contentRangeTotal(Response response) {
+        String range = response.header("Content-Range");
+        if (range == null)
+            return -1;
+        int slash = range.lastIndexOf('/');
+        if (slash < 0 || range.endsWith("*"))
+            return -1;
+        try {
+            return Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package cn.gnsit.wenwan.app.service;
+
+/**
+ * 更新清单中的一个文件:基础安装包、拆分安装包或资源包
+ */
+public class UpdateArtifact {
+    public static final String TYPE_APK = "apk";
+    public static final String TYPE_SPLIT = "split";
+    public static final String TYPE_ASSET = "asset";
+
+    private String name;
+    private String type = TYPE_ASSET;
+    private String url;
+    private long size = -1;
+    private String sha256;
+    private int priority;
+    private boolean required = true;
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@link #TYPE_APK}、{@link #TYPE_SPLIT}或{@link #TYPE_ASSET},默认为资源包
+     */
+    public String getType() {
+        return type;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * 文件大小,未知时为-1
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * 下载优先级,数值小的先下载
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * 是否为完成更新所必需,非必需的文件下载失败不影响安装
+     */
+    public boolean isRequired() {
+        return required;
+    }
+
+    public boolean isApk() {
+        return TYPE_APK.equals(type) || TYPE_SPLIT.equals(type);
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    void setType(String type) {
+        this.type = type;
+    }
+
+    void setUrl(String url) {
+        this.url = url;
+    }
+
+    void setSize(long size) {
+        this.size = size;
+    }
+
+    void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    void setRequired(boolean required) {
+        this.required = required;
+    }
+}
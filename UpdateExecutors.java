@@ -0,0 +1,76 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 更新流程共用的后台线程池
+ * 线程数都有上限,以后台优先级运行,空闲后自动回收,不常驻;
+ * 按用途分为三组,等待其他任务的任务与被等待的任务不在同一组中,避免线程用尽时互相等待:
+ * background执行检查、解析等短任务,download执行一次下载或预下载的主流程,transfer执行分段和多文件下载中的单个传输
+ */
+public class UpdateExecutors {
+    private static final int BACKGROUND_THREADS = 2;
+    // 用户触发的下载与预下载各一个
+    private static final int DOWNLOAD_THREADS = 2;
+    private static final int TRANSFER_THREADS = 6;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ThreadPoolExecutor background;
+    private static ThreadPoolExecutor download;
+    private static ThreadPoolExecutor transfer;
+
+    private UpdateExecutors() {
+    }
+
+    public static synchronized ExecutorService background() {
+        if (background == null)
+            background = create(BACKGROUND_THREADS, "VersionUpdateWorker");
+        return background;
+    }
+
+    public static synchronized ExecutorService download() {
+        if (download == null)
+            download = create(DOWNLOAD_THREADS, "VersionUpdateDownload");
+        return download;
+    }
+
+    public static synchronized ExecutorService transfer() {
+        if (transfer == null)
+            transfer = create(TRANSFER_THREADS, "VersionUpdateTransfer");
+        return transfer;
+    }
+
+    private static ThreadPoolExecutor create(int threads, String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new PriorityThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class PriorityThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        PriorityThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, name + "-" + count.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.util.concurrent.TimeUnit;
+
+import cn.gnsit.wenwan.app.utils.LogUtil;
+import okhttp3.OkHttpClient;
+
+/**
+ * 版本更新下载使用的OkHttpClient,进程内共享
+ * 通过{@link #init(OkHttpClient)}传入应用自己的client(如检查接口使用的client)时,只共用它的连接池、调度器和DNS,
+ * 检查与下载可以复用同一条连接;应用client上的拦截器、缓存、认证等配置不会带到下载请求上
+ */
+public class UpdateHttpClient {
+    private static final long CONNECT_TIMEOUT = 15;
+    private static final long READ_TIMEOUT = 30;
+
+    private static volatile UpdateHttpClient instance;
+    private static OkHttpClient base;
+
+    private final OkHttpClient client;
+
+    private UpdateHttpClient() {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder();
+        if (base != null) {
+            // 不用base.newBuilder(),否则会继承应用的拦截器(如日志拦截器会把整个APK读进内存)
+            builder.connectionPool(base.connectionPool())
+                    .dispatcher(base.dispatcher())
+                    .dns(base.dns());
+        }
+        client = builder
+                .connectTimeout(CONNECT_TIMEOUT, TimeUnit.SECONDS)
+                .readTimeout(READ_TIMEOUT, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+    }
+
+    /**
+     * 需要在第一次使用getInstance之前调用
+     *
+     * @param client 应用共用的client,派生出的client与它共享连接池
+     */
+    public static synchronized void init(OkHttpClient client) {
+        if (instance != null) {
+            LogUtil.d(UpdateHttpClient.class.getSimpleName(), "already initialized, shared client ignored");
+            return;
+        }
+        base = client;
+    }
+
+    public static UpdateHttpClient getInstance() {
+        if (instance == null) {
+            synchronized (UpdateHttpClient.class) {
+                if (instance == null) {
+                    instance = new UpdateHttpClient();
+                }
+            }
+        }
+        return instance;
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+}
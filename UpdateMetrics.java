@@ -0,0 +1,185 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 更新流程的耗时与计数
+ * 各阶段用单调时钟(System.nanoTime)记录起止时间,另外统计下载字节数、吞吐量分布、重试和失败次数;
+ * 结果通过{@link Exporter}输出,默认的NOOP下所有记录方法直接返回,不产生任何对象
+ */
+public class UpdateMetrics {
+
+    public enum Stage {
+        BIND,
+        CHECK,
+        PARSE,
+        FIRST_BYTE,
+        DOWNLOAD,
+        INSTALL,
+        /**
+         * 后台预热连接(DNS解析加一次HEAD请求)本身花费的时间,发生在用户确认下载之前,不计入下载耗时;
+         * 它不等于下载省下的时间,预热的收益要对比有无预热时{@link #FIRST_BYTE}的分布
+         */
+        PREWARM_COST
+    }
+
+    public static final String REASON_HTTP = "http";
+    public static final String REASON_IO = "io";
+    public static final String REASON_CANCELED = "canceled";
+    public static final String REASON_VERIFY = "verify";
+    public static final String REASON_PARSE = "parse";
+
+    /**
+     * 吞吐量分布的上界(KB/s),最后一档为无上界
+     */
+    private static final long[] THROUGHPUT_BUCKETS = {16, 64, 256, 1024, 4096};
+
+    public interface Exporter {
+        Exporter NOOP = new Exporter() {
+            @Override
+            public void onStage(Stage stage, long startNanos, long endNanos) {
+            }
+
+            @Override
+            public void onRetry(Stage stage, String reason) {
+            }
+
+            @Override
+            public void onFailure(Stage stage, String reason) {
+            }
+
+            @Override
+            public void onThroughput(long bytes, long nanos, int bucket) {
+            }
+        };
+
+        void onStage(Stage stage, long startNanos, long endNanos);
+
+        void onRetry(Stage stage, String reason);
+
+        void onFailure(Stage stage, String reason);
+
+        /**
+         * @param bucket 落入的吞吐量分档,见{@link #getThroughputHistogram()}
+         */
+        void onThroughput(long bytes, long nanos, int bucket);
+    }
+
+    private static final UpdateMetrics instance = new UpdateMetrics();
+
+    private volatile Exporter exporter = Exporter.NOOP;
+    private final AtomicLongArray stageStart = new AtomicLongArray(Stage.values().length);
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLongArray throughputHistogram = new AtomicLongArray(THROUGHPUT_BUCKETS.length + 1);
+
+    private UpdateMetrics() {
+    }
+
+    public static UpdateMetrics getInstance() {
+        return instance;
+    }
+
+    public void setExporter(Exporter exporter) {
+        this.exporter = exporter == null ? Exporter.NOOP : exporter;
+    }
+
+    public boolean isEnabled() {
+        return exporter != Exporter.NOOP;
+    }
+
+    public void begin(Stage stage) {
+        if (exporter == Exporter.NOOP)
+            return;
+        stageStart.set(stage.ordinal(), System.nanoTime());
+    }
+
+    /**
+     * 结束一个阶段,没有对应的begin时忽略
+     */
+    public void end(Stage stage) {
+        Exporter current = exporter;
+        if (current == Exporter.NOOP)
+            return;
+        long start = stageStart.getAndSet(stage.ordinal(), 0);
+        if (start != 0)
+            current.onStage(stage, start, System.nanoTime());
+    }
+
+    public void addBytes(long count) {
+        if (exporter == Exporter.NOOP)
+            return;
+        bytes.addAndGet(count);
+    }
+
+    public void throughput(long count, long nanos) {
+        Exporter current = exporter;
+        if (current == Exporter.NOOP || nanos <= 0)
+            return;
+        long kbPerSecond = count * 1000000000L / nanos / 1024;
+        int bucket = 0;
+        while (bucket < THROUGHPUT_BUCKETS.length && kbPerSecond >= THROUGHPUT_BUCKETS[bucket]) {
+            bucket++;
+        }
+        throughputHistogram.incrementAndGet(bucket);
+        current.onThroughput(count, nanos, bucket);
+    }
+
+    public void retry(Stage stage, String reason) {
+        Exporter current = exporter;
+        if (current == Exporter.NOOP)
+            return;
+        retries.incrementAndGet();
+        current.onRetry(stage, reason);
+    }
+
+    /**
+     * 记录失败并结束该阶段的计时
+     */
+    public void failure(Stage stage, String reason) {
+        Exporter current = exporter;
+        if (current == Exporter.NOOP)
+            return;
+        stageStart.set(stage.ordinal(), 0);
+        failures.incrementAndGet();
+        current.onFailure(stage, reason);
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * 各吞吐量分档的次数,分档上界依次为16、64、256、1024、4096KB/s及以上
+     */
+    public long[] getThroughputHistogram() {
+        long[] result = new long[throughputHistogram.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = throughputHistogram.get(i);
+        }
+        return result;
+    }
+
+    public static String reasonOf(int downloadErrorCode) {
+        switch (downloadErrorCode) {
+            case ApkDownloader.ERROR_IO:
+                return REASON_IO;
+            case ApkDownloader.ERROR_CANCELED:
+                return REASON_CANCELED;
+            case ApkDownloader.ERROR_VERIFY:
+                return REASON_VERIFY;
+            default:
+                return REASON_HTTP;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 检查或下载任务的句柄
+ * cancel立即中断任务并释放连接;设置了超时的任务到时自动取消,{@link #isTimedOut()}为true;
+ * 支持暂停的任务在暂停期间不计时,恢复后重新开始计时
+ */
+public abstract class UpdateTask {
+    public static final int STATE_RUNNING = 0;
+    public static final int STATE_PAUSED = 1;
+    public static final int STATE_FINISHED = 2;
+    public static final int STATE_CANCELED = 3;
+
+    private static final Handler timer = new Handler(Looper.getMainLooper());
+
+    private int state = STATE_RUNNING;
+    private long timeout;
+    private volatile boolean timedOut;
+
+    private final Runnable timeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            timedOut = true;
+            cancel();
+        }
+    };
+
+    /**
+     * 已经结束的任务,例如直接命中缓存的下载
+     */
+    public static UpdateTask finished() {
+        UpdateTask task = new UpdateTask() {
+            @Override
+            protected void onCancel() {
+            }
+        };
+        task.finish();
+        return task;
+    }
+
+    public synchronized int getState() {
+        return state;
+    }
+
+    public boolean isCanceled() {
+        return getState() == STATE_CANCELED;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @param timeout 毫秒,0表示不限时
+     */
+    public void setTimeout(long timeout) {
+        synchronized (this) {
+            this.timeout = timeout;
+            if (state != STATE_RUNNING)
+                return;
+        }
+        restartTimer();
+    }
+
+    public void cancel() {
+        synchronized (this) {
+            if (state == STATE_FINISHED || state == STATE_CANCELED)
+                return;
+            state = STATE_CANCELED;
+        }
+        timer.removeCallbacks(timeoutRunnable);
+        onCancel();
+    }
+
+    /**
+     * @return 任务不支持暂停或不在运行中时返回false
+     */
+    public boolean pause() {
+        if (!isPausable())
+            return false;
+        synchronized (this) {
+            if (state != STATE_RUNNING)
+                return false;
+            state = STATE_PAUSED;
+        }
+        timer.removeCallbacks(timeoutRunnable);
+        onPause();
+        return true;
+    }
+
+    public boolean resume() {
+        synchronized (this) {
+            if (state != STATE_PAUSED)
+                return false;
+            state = STATE_RUNNING;
+        }
+        restartTimer();
+        onResume();
+        return true;
+    }
+
+    public boolean isPausable() {
+        return false;
+    }
+
+    /**
+     * 由执行方在任务正常结束(成功或失败)时调用
+     */
+    void finish() {
+        synchronized (this) {
+            if (state == STATE_CANCELED)
+                return;
+            state = STATE_FINISHED;
+        }
+        timer.removeCallbacks(timeoutRunnable);
+    }
+
+    private void restartTimer() {
+        timer.removeCallbacks(timeoutRunnable);
+        long current;
+        synchronized (this) {
+            current = timeout;
+        }
+        if (current > 0)
+            timer.postDelayed(timeoutRunnable, current);
+    }
+
+    protected abstract void onCancel();
+
+    protected void onPause() {
+    }
+
+    protected void onResume() {
+    }
+}
@@ -0,0 +1,126 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 版本检查接口中VersionUpdateModel之外的扩展字段
+ */
+public class UpgradeExtras {
+    private String patchUrl;
+    private String patchBaseHash;
+    private String targetHash;
+    private long retryAfter;
+    private int rolloutPercent = 100;
+    private long rolloutStart;
+    private long rolloutEnd;
+    private List<String> mirrors = Collections.emptyList();
+    private List<UpdateArtifact> artifacts = Collections.emptyList();
+
+    /**
+     * 增量包下载地址,没有增量包时为null
+     */
+    public String getPatchUrl() {
+        return patchUrl;
+    }
+
+    /**
+     * 增量包基于的安装包SHA-256
+     */
+    public String getPatchBaseHash() {
+        return patchBaseHash;
+    }
+
+    /**
+     * 新版本安装包的SHA-256
+     */
+    public String getTargetHash() {
+        return targetHash;
+    }
+
+    /**
+     * 服务端要求的最短检查间隔(秒),没有时为0
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * 灰度放量比例,0-100,默认全量
+     */
+    public int getRolloutPercent() {
+        return rolloutPercent;
+    }
+
+    /**
+     * 放量窗口开始时间(毫秒),没有窗口时为0
+     */
+    public long getRolloutStart() {
+        return rolloutStart;
+    }
+
+    /**
+     * 放量窗口结束时间(毫秒),没有窗口时为0
+     */
+    public long getRolloutEnd() {
+        return rolloutEnd;
+    }
+
+    /**
+     * 与upgradeUrl内容相同的备用下载地址,没有时为空列表
+     */
+    public List<String> getMirrors() {
+        return mirrors;
+    }
+
+    /**
+     * 多文件更新清单,只有单个安装包时为空列表
+     */
+    public List<UpdateArtifact> getArtifacts() {
+        return artifacts;
+    }
+
+    void setPatchUrl(String patchUrl) {
+        this.patchUrl = patchUrl;
+    }
+
+    void setPatchBaseHash(String patchBaseHash) {
+        this.patchBaseHash = patchBaseHash;
+    }
+
+    void setTargetHash(String targetHash) {
+        this.targetHash = targetHash;
+    }
+
+    void setRetryAfter(long retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    void setRolloutPercent(int rolloutPercent) {
+        this.rolloutPercent = Math.max(0, Math.min(100, rolloutPercent));
+    }
+
+    void setRolloutStart(long rolloutStart) {
+        this.rolloutStart = rolloutStart;
+    }
+
+    void setRolloutEnd(long rolloutEnd) {
+        this.rolloutEnd = rolloutEnd;
+    }
+
+    void setMirrors(List<String> mirrors) {
+        this.mirrors = mirrors == null ? Collections.<String>emptyList() : mirrors;
+    }
+
+    void setArtifacts(List<UpdateArtifact> artifacts) {
+        this.artifacts = artifacts == null ? Collections.<UpdateArtifact>emptyList() : artifacts;
+    }
+
+    public boolean hasArtifacts() {
+        return !artifacts.isEmpty();
+    }
+
+    public boolean hasPatch() {
+        return patchUrl != null && patchUrl.length() > 0 && targetHash != null;
+    }
+}
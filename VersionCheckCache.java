@@ -0,0 +1,175 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+
+import cn.gnsit.wenwan.app.base.MainApplication;
+import cn.gnsit.wenwan.app.utils.LogUtil;
+import okhttp3.Headers;
+
+/**
+ * 版本检查结果缓存
+ * 保存最近一次检查的响应体、ETag和过期时间;有效期内直接使用缓存,不发网络请求,
+ * 过期后按ETag重新验证,响应未变化(紧凑编码接口的304,或JSON接口返回相同的ETag)时不再重复解析;紧凑编码的响应以Base64保存
+ */
+public class VersionCheckCache {
+    private static final String TAG = VersionCheckCache.class.getSimpleName();
+
+    private static final String PREFS_NAME = "version_check_cache";
+    private static final String KEY_BODY = "body";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_EXPIRES = "expires";
+    private static final String KEY_BUILD = "build";
+    private static final String KEY_FORMAT = "format";
+    private static final String FORMAT_COMPACT = "compact";
+
+    public static final long DEFAULT_TTL = 30 * 60 * 1000;
+
+    private static VersionCheckCache instance;
+
+    private final SharedPreferences prefs;
+    private long defaultTtl = DEFAULT_TTL;
+
+    private CheckResult result;
+    private String etag;
+    private long expires;
+    private int build;
+
+    private VersionCheckCache(Context context) {
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String body = prefs.getString(KEY_BODY, null);
+        if (body != null) {
+            try {
+                if (FORMAT_COMPACT.equals(prefs.getString(KEY_FORMAT, null))) {
+                    result = CompactCheckCodec.decode(Base64.decode(body, Base64.NO_WRAP));
+                } else {
+                    result = CheckResult.parse(body);
+                }
+                etag = prefs.getString(KEY_ETAG, null);
+                expires = prefs.getLong(KEY_EXPIRES, 0);
+                build = prefs.getInt(KEY_BUILD, 0);
+            } catch (Exception e) {
+                LogUtil.d(TAG, "cached body damaged: " + e.getMessage());
+                clear();
+            }
+        }
+    }
+
+    public static synchronized VersionCheckCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new VersionCheckCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * 启动时调用(如MainApplication.onCreate),用磁盘上的缓存初始化MainApplication中的版本信息
+     * 读取SharedPreferences和解析缓存的响应体在后台进行,结果回到主线程设置,不占用启动时的主线程
+     */
+    public static void seed(Context context) {
+        final Context appContext = context.getApplicationContext();
+        UpdateExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                final CheckResult cached = getInstance(appContext).getResult();
+                if (cached == null)
+                    return;
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        MainApplication.getInstance().setVersionUpdateModelCache(cached.getModel());
+                    }
+                });
+            }
+        });
+    }
+
+    public void setDefaultTtl(long defaultTtl) {
+        this.defaultTtl = defaultTtl;
+    }
+
+    public synchronized CheckResult getResult() {
+        return result;
+    }
+
+    /**
+     * 缓存是否仍在有效期内;应用升级后缓存随之失效
+     */
+    public synchronized boolean isFresh(int currentBuild) {
+        return result != null && build == currentBuild && System.currentTimeMillis() < expires;
+    }
+
+    /**
+     * 用于If-None-Match请求头
+     */
+    public synchronized String getEtag() {
+        return etag;
+    }
+
+    /**
+     * 响应的ETag与缓存一致时视为未变化
+     */
+    public synchronized boolean isNotModified(int currentBuild, Headers headers) {
+        String responseEtag = headers == null ? null : headers.get("ETag");
+        return result != null && build == currentBuild && responseEtag != null && responseEtag.equals(etag);
+    }
+
+    /**
+     * 重新验证通过,只延长有效期
+     */
+    public synchronized void refresh(Headers headers) {
+        expires = System.currentTimeMillis() + ttlOf(headers);
+        prefs.edit().putLong(KEY_EXPIRES, expires).apply();
+    }
+
+    public synchronized void put(int currentBuild, Headers headers, String body, CheckResult result) {
+        put(currentBuild, headers, body, null, result);
+    }
+
+    public synchronized void putCompact(int currentBuild, Headers headers, byte[] body, CheckResult result) {
+        put(currentBuild, headers, Base64.encodeToString(body, Base64.NO_WRAP), FORMAT_COMPACT, result);
+    }
+
+    private void put(int currentBuild, Headers headers, String body, String format, CheckResult result) {
+        this.result = result;
+        this.etag = headers == null ? null : headers.get("ETag");
+        this.expires = System.currentTimeMillis() + ttlOf(headers);
+        this.build = currentBuild;
+        prefs.edit()
+                .putString(KEY_BODY, body)
+                .putString(KEY_FORMAT, format)
+                .putString(KEY_ETAG, etag)
+                .putLong(KEY_EXPIRES, expires)
+                .putInt(KEY_BUILD, build)
+                .apply();
+    }
+
+    public synchronized void clear() {
+        result = null;
+        etag = null;
+        expires = 0;
+        prefs.edit().clear().apply();
+    }
+
+    /**
+     * 优先使用Cache-Control: max-age,否则使用默认有效期
+     */
+    private long ttlOf(Headers headers) {
+        String cacheControl = headers == null ? null : headers.get("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim();
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return Long.parseLong(directive.substring(8)) * 1000;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        return defaultTtl;
+    }
+}
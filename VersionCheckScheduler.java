@@ -0,0 +1,171 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import cn.gnsit.wenwan.app.utils.InstallId;
+import cn.gnsit.wenwan.app.utils.LogUtil;
+import okhttp3.Headers;
+
+/**
+ * 后台定时检查更新
+ * 每台设备按安装标识得到固定的抖动偏移,避免所有客户端同时请求;
+ * 服务端可通过Retry-After或响应中的retryAfter推迟下次检查,检查失败按指数退避
+ */
+public class VersionCheckScheduler {
+    private static final String TAG = VersionCheckScheduler.class.getSimpleName();
+
+    public static final String ACTION_BACKGROUND_CHECK = "cn.gnsit.wenwan.app.action.BACKGROUND_VERSION_CHECK";
+
+    private static final String PREFS_NAME = "version_check_scheduler";
+    private static final String KEY_NEXT_CHECK = "nextCheck";
+    private static final String KEY_FAILURES = "failures";
+    private static final String KEY_BACKOFF_UNTIL = "backoffUntil";
+    private static final String KEY_STARTED = "started";
+
+    public static final long DEFAULT_INTERVAL = 24 * 60 * 60 * 1000L;
+    public static final long DEFAULT_JITTER_WINDOW = 6 * 60 * 60 * 1000L;
+    private static final long BACKOFF_BASE = 5 * 60 * 1000L;
+    private static final long BACKOFF_MAX = 24 * 60 * 60 * 1000L;
+
+    private static VersionCheckScheduler instance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private long interval = DEFAULT_INTERVAL;
+    private long jitterWindow = DEFAULT_JITTER_WINDOW;
+
+    private VersionCheckScheduler(Context context) {
+        this.context = context.getApplicationContext();
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized VersionCheckScheduler getInstance(Context context) {
+        if (instance == null) {
+            instance = new VersionCheckScheduler(context);
+        }
+        return instance;
+    }
+
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public void setJitterWindow(long jitterWindow) {
+        this.jitterWindow = jitterWindow;
+    }
+
+    /**
+     * 开启后台定时检查,已有计划时保持原计划不变;开启状态持久保存,由闹钟拉起的新进程中仍然有效
+     */
+    public synchronized void start() {
+        long next = prefs.getLong(KEY_NEXT_CHECK, 0);
+        if (next <= System.currentTimeMillis()) {
+            next = System.currentTimeMillis() + jitter(interval);
+        }
+        prefs.edit().putLong(KEY_NEXT_CHECK, next).putBoolean(KEY_STARTED, true).apply();
+        setAlarm(next);
+    }
+
+    public synchronized void stop() {
+        prefs.edit().putBoolean(KEY_STARTED, false).apply();
+        alarmManager().cancel(pendingIntent());
+    }
+
+    /**
+     * 是否开启了后台定时检查;未开启时检查结果只用于退避,不设置闹钟
+     */
+    public synchronized boolean isStarted() {
+        return prefs.getBoolean(KEY_STARTED, false);
+    }
+
+    /**
+     * 是否处于失败退避期内,退避期内不应发起网络检查
+     */
+    public synchronized boolean isBackingOff() {
+        return System.currentTimeMillis() < prefs.getLong(KEY_BACKOFF_UNTIL, 0);
+    }
+
+    /**
+     * 检查成功,清除失败计数;服务端给出的延迟大于正常间隔时以服务端为准
+     *
+     * @param retryAfter 响应中的retryAfter(秒),没有时为0
+     */
+    public synchronized void onCheckSuccess(Headers headers, long retryAfter) {
+        long delay = Math.max(interval, Math.max(retryAfter * 1000, retryAfterOf(headers)));
+        long next = System.currentTimeMillis() + jitter(delay);
+        prefs.edit()
+                .putInt(KEY_FAILURES, 0)
+                .putLong(KEY_BACKOFF_UNTIL, 0)
+                .putLong(KEY_NEXT_CHECK, next)
+                .apply();
+        if (isStarted())
+            setAlarm(next);
+    }
+
+    /**
+     * 检查失败,按2的失败次数次方退避,退避结束时再在后台重试
+     */
+    public synchronized void onCheckFailed() {
+        int failures = prefs.getInt(KEY_FAILURES, 0) + 1;
+        long backoff = BACKOFF_BASE << Math.min(failures - 1, 16);
+        backoff = Math.min(backoff, BACKOFF_MAX);
+        // 退避时长在[backoff/2, backoff)之间按设备固定抖动
+        long until = System.currentTimeMillis() + backoff / 2
+                + (long) (backoff / 2 * InstallId.fraction(context, "backoff" + failures));
+        LogUtil.d(TAG, "check failed " + failures + " times, back off until " + until);
+        prefs.edit()
+                .putInt(KEY_FAILURES, failures)
+                .putLong(KEY_BACKOFF_UNTIL, until)
+                .putLong(KEY_NEXT_CHECK, until)
+                .apply();
+        if (isStarted())
+            setAlarm(until);
+    }
+
+    private long jitter(long delay) {
+        return delay + (long) (jitterWindow * InstallId.fraction(context, "versionCheck"));
+    }
+
+    /**
+     * 解析Retry-After,支持秒数和HTTP日期两种格式,返回毫秒
+     */
+    static long retryAfterOf(Headers headers) {
+        String value = headers == null ? null : headers.get("Retry-After");
+        if (value == null)
+            return 0;
+        try {
+            return Long.parseLong(value.trim()) * 1000;
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    private void setAlarm(long triggerAt) {
+        alarmManager().set(AlarmManager.RTC, triggerAt, pendingIntent());
+    }
+
+    private AlarmManager alarmManager() {
+        return (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    }
+
+    private PendingIntent pendingIntent() {
+        Intent intent = new Intent(context, VersionUpdateService.class);
+        intent.setAction(ACTION_BACKGROUND_CHECK);
+        return PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
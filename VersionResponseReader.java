@@ -0,0 +1,159 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.gnsit.wenwan.app.model.VersionUpdateModel;
+
+/**
+ * 版本检查响应的流式解析
+ * 只绑定更新流程需要的字段,不经过fastjson的反射绑定;description等大字段跳过,需要时再从原文中单独读取
+ */
+public class VersionResponseReader {
+    private static final String KEY_DESCRIPTION = "description";
+
+    private VersionResponseReader() {
+    }
+
+    public static CheckResult read(String response) throws IOException {
+        VersionUpdateModel model = new VersionUpdateModel();
+        UpgradeExtras extras = new UpgradeExtras();
+        JsonReader reader = new JsonReader(new StringReader(response));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("build".equals(name)) {
+                    model.setBuild(reader.nextInt());
+                } else if ("needUpgrade".equals(name)) {
+                    model.setNeedUpgrade(readBoolean(reader));
+                } else if ("mustUpgrade".equals(name)) {
+                    model.setMustUpgrade(readBoolean(reader));
+                } else if ("upgradeUrl".equals(name)) {
+                    model.setUpgradeUrl(readString(reader));
+                } else if ("patchUrl".equals(name)) {
+                    extras.setPatchUrl(readString(reader));
+                } else if ("patchBaseHash".equals(name)) {
+                    extras.setPatchBaseHash(readString(reader));
+                } else if ("targetHash".equals(name)) {
+                    extras.setTargetHash(readString(reader));
+                } else if ("retryAfter".equals(name)) {
+                    extras.setRetryAfter(reader.nextLong());
+                } else if ("rolloutPercent".equals(name)) {
+                    extras.setRolloutPercent(reader.nextInt());
+                } else if ("rolloutStart".equals(name)) {
+                    extras.setRolloutStart(reader.nextLong());
+                } else if ("rolloutEnd".equals(name)) {
+                    extras.setRolloutEnd(reader.nextLong());
+                } else if ("mirrors".equals(name)) {
+                    extras.setMirrors(readStringList(reader));
+                } else if ("artifacts".equals(name)) {
+                    extras.setArtifacts(readArtifacts(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+        return new CheckResult(model, extras, response);
+    }
+
+    /**
+     * 从原文中只读取description,其余字段一律跳过
+     */
+    public static String readDescription(String response) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(response));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (KEY_DESCRIPTION.equals(reader.nextName()))
+                    return readString(reader);
+                reader.skipValue();
+            }
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    static String readString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    static List<UpdateArtifact> readArtifacts(JsonReader reader) throws IOException {
+        List<UpdateArtifact> artifacts = new ArrayList<>();
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return artifacts;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            UpdateArtifact artifact = new UpdateArtifact();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("name".equals(name)) {
+                    artifact.setName(readString(reader));
+                } else if ("type".equals(name)) {
+                    artifact.setType(readString(reader));
+                } else if ("url".equals(name)) {
+                    artifact.setUrl(readString(reader));
+                } else if ("size".equals(name)) {
+                    artifact.setSize(reader.nextLong());
+                } else if ("sha256".equals(name)) {
+                    artifact.setSha256(readString(reader));
+                } else if ("priority".equals(name)) {
+                    artifact.setPriority(reader.nextInt());
+                } else if ("required".equals(name)) {
+                    artifact.setRequired(readBoolean(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (artifact.getUrl() != null && artifact.getUrl().length() > 0)
+                artifacts.add(artifact);
+        }
+        reader.endArray();
+        return artifacts;
+    }
+
+    static List<String> readStringList(JsonReader reader) throws IOException {
+        List<String> values = new ArrayList<>();
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return values;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String value = readString(reader);
+            if (value != null && value.length() > 0)
+                values.add(value);
+        }
+        reader.endArray();
+        return values;
+    }
+
+    static boolean readBoolean(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BOOLEAN)
+            return reader.nextBoolean();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return false;
+        }
+        String value = reader.nextString();
+        return "true".equalsIgnoreCase(value) || "1".equals(value);
+    }
+}
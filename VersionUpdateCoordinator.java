@@ -0,0 +1,97 @@
+package cn.gnsit.wenwan.app.utils;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 进程内的版本更新协调器
+ * 同一时间只允许一个VersionUpdateHelper绑定服务并检查更新,其余调用方登记回调,共享同一次检查的结果;
+ * 调用方和回调都以弱引用持有,不会因此泄漏Context
+ */
+public class VersionUpdateCoordinator {
+    private static final VersionUpdateCoordinator instance = new VersionUpdateCoordinator();
+
+    private WeakReference<VersionUpdateHelper> owner;
+    private final List<WeakReference<VersionUpdateHelper.CheckCallBack>> waiters = new ArrayList<>();
+    private boolean canceled;
+    // 当前这次检查已经得到的结果,null表示尚未得到
+    private Integer result;
+
+    private VersionUpdateCoordinator() {
+    }
+
+    public static VersionUpdateCoordinator getInstance() {
+        return instance;
+    }
+
+    /**
+     * 尝试成为本次检查的执行者,已有执行者时返回false
+     */
+    public synchronized boolean acquire(VersionUpdateHelper helper) {
+        VersionUpdateHelper current = owner == null ? null : owner.get();
+        if (current != null && current != helper)
+            return false;
+        if (current == null)
+            result = null;
+        owner = new WeakReference<>(helper);
+        return true;
+    }
+
+    /**
+     * 执行者释放检查;还没有得到结果时(取消、绑定失败或服务断开)以code通知等待中的回调,避免它们一直等待
+     */
+    public void release(VersionUpdateHelper helper, int code) {
+        synchronized (this) {
+            if (owner == null || owner.get() != helper)
+                return;
+            owner = null;
+            if (result != null)
+                return;
+        }
+        publish(code);
+    }
+
+    /**
+     * 登记等待共享结果的回调
+     */
+    public void join(VersionUpdateHelper.CheckCallBack callBack) {
+        if (callBack == null)
+            return;
+        Integer finished;
+        synchronized (this) {
+            finished = result;
+            if (finished == null)
+                waiters.add(new WeakReference<>(callBack));
+        }
+        if (finished != null)
+            callBack.callBack(finished);
+    }
+
+    /**
+     * 执行者得到结果后调用,结果分发给所有等待中的回调
+     */
+    public void publish(int code) {
+        List<WeakReference<VersionUpdateHelper.CheckCallBack>> pending;
+        synchronized (this) {
+            result = code;
+            if (waiters.isEmpty())
+                return;
+            pending = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        for (WeakReference<VersionUpdateHelper.CheckCallBack> reference : pending) {
+            VersionUpdateHelper.CheckCallBack callBack = reference.get();
+            if (callBack != null)
+                callBack.callBack(code);
+        }
+    }
+
+    public synchronized boolean isCanceled() {
+        return canceled;
+    }
+
+    public synchronized void setCanceled(boolean canceled) {
+        this.canceled = canceled;
+    }
+}
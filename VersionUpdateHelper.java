@@ -1,13 +1,19 @@
 package cn.gnsit.wenwan.app.utils;
 
+import android.app.Activity;
 import android.app.ProgressDialog;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.v7.app.AlertDialog;
+import android.view.View;
+import android.view.ViewTreeObserver;
 
 import org.greenrobot.eventbus.EventBus;
 
@@ -16,7 +22,11 @@ import java.io.File;
 import cn.gnsit.wenwan.app.base.MainApplication;
 import cn.gnsit.wenwan.app.event.VersionUpdateEvent;
 import cn.gnsit.wenwan.app.model.VersionUpdateModel;
+import cn.gnsit.wenwan.app.service.UpdateHttpClient;
+import cn.gnsit.wenwan.app.service.UpdateMetrics;
+import cn.gnsit.wenwan.app.service.UpdateTask;
 import cn.gnsit.wenwan.app.service.VersionUpdateService;
+import okhttp3.OkHttpClient;
 
 /**
  * Created by guizhigang on 16/6/23.
@@ -27,16 +37,28 @@ public class VersionUpdateHelper implements ServiceConnection {
     private AlertDialog waitForUpdateDialog;
     private ProgressDialog progressDialog;
 
-    private static boolean isCanceled;
-
     private boolean showDialogOnStart;
     private boolean toastInfo;
+    private boolean prefetch;
+    private boolean deferredStart;
+    private String compactCheckUrl;
+    private Runnable pendingStart;
+    // 已调用bindService但还没有连接上
+    private boolean binding;
+    private UpdateTask checkTask;
+    private UpdateTask downloadTask;
+    private final Handler handler = new Handler(Looper.getMainLooper());
 
     public static final int NEED_UPDATE = 2;
     public static final int DONOT_NEED_UPDATE = 1;
     public static final int CHECK_FAILD = -1;
     public static final int USER_CANCELED = 0;
 
+    /**
+     * 延迟启动模式下,首帧之后主线程一直不空闲时最多等待的时间
+     */
+    private static final long DEFERRED_START_TIMEOUT = 5000;
+
     private CheckCallBack checkCallBack;
 
     public interface CheckCallBack{
@@ -52,7 +74,7 @@ public class VersionUpdateHelper implements ServiceConnection {
     }
 
     public static void resetCancelFlag() {
-        isCanceled = false;
+        VersionUpdateCoordinator.getInstance().setCanceled(false);
     }
 
     /**
@@ -73,29 +95,176 @@ public class VersionUpdateHelper implements ServiceConnection {
         this.toastInfo = toastInfo;
     }
 
+    /**
+     * 检查到新版本后是否在不计费的wifi下静默预下载
+     *
+     * @param prefetch
+     */
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * 延迟启动模式:startUpdateVersion等到首帧绘制完成、主线程空闲后才绑定服务,
+     * 版本号读取、缓存查找和响应解析都在后台线程进行,主线程只用于弹窗
+     *
+     * @param deferredStart
+     */
+    public void setDeferredStart(boolean deferredStart) {
+        this.deferredStart = deferredStart;
+    }
+
+    /**
+     * 使用紧凑编码的检查地址,大部分"无新版本"的检查只需要几十字节,更新说明在弹窗时才获取
+     *
+     * @param compactCheckUrl
+     */
+    public void setCompactCheckUrl(String compactCheckUrl) {
+        this.compactCheckUrl = compactCheckUrl;
+    }
+
+    /**
+     * 设置更新流程耗时与计数的输出,传null恢复为不记录
+     *
+     * @param exporter
+     */
+    public static void setMetricsExporter(UpdateMetrics.Exporter exporter) {
+        UpdateMetrics.getInstance().setExporter(exporter);
+    }
+
+    /**
+     * 让更新下载与应用的接口请求共用同一个client的连接池,需要在第一次检查更新之前调用
+     *
+     * @param client
+     */
+    public static void setHttpClient(OkHttpClient client) {
+        UpdateHttpClient.init(client);
+    }
+
     public void startUpdateVersion() {
         LogUtil.d("VersionUpdateService", "startUpdateVersion");
-        if (isCanceled)
+        if (deferredStart) {
+            scheduleDeferredStart();
+            return;
+        }
+        bindAndCheck();
+    }
+
+    private void scheduleDeferredStart() {
+        if (pendingStart != null || service != null)
+            return;
+        pendingStart = new Runnable() {
+            @Override
+            public void run() {
+                if (pendingStart != this)
+                    return;
+                pendingStart = null;
+                handler.removeCallbacks(this);
+                if (context != null)
+                    bindAndCheck();
+            }
+        };
+        final Runnable start = pendingStart;
+        final View decorView = context instanceof Activity ? ((Activity) context).getWindow().getDecorView() : null;
+        if (decorView == null || decorView.getWidth() > 0) {
+            startWhenIdle(start);
+            return;
+        }
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // onPreDraw在首帧绘制之前回调,post的任务在这一帧绘制完成后才执行
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        startWhenIdle(start);
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    private void startWhenIdle(final Runnable start) {
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                start.run();
+                return false;
+            }
+        });
+        handler.postDelayed(start, DEFERRED_START_TIMEOUT);
+    }
+
+    private void bindAndCheck() {
+        VersionUpdateCoordinator coordinator = VersionUpdateCoordinator.getInstance();
+        if (coordinator.isCanceled())
             return;
         if (isWaitForUpdate() || isWaitForDownload()) {
             return;
         }
         if (service == null && context != null) {
-            context.bindService(new Intent(context, VersionUpdateService.class), this, Context.BIND_AUTO_CREATE);
+            //已有检查在进行中,等待共享结果
+            if (!coordinator.acquire(this)) {
+                LogUtil.d("VersionUpdateService", "join in-flight check");
+                coordinator.join(checkCallBack);
+                return;
+            }
+            UpdateMetrics.getInstance().begin(UpdateMetrics.Stage.BIND);
+            if (!context.bindService(new Intent(context, VersionUpdateService.class), this, Context.BIND_AUTO_CREATE)) {
+                UpdateMetrics.getInstance().failure(UpdateMetrics.Stage.BIND, UpdateMetrics.REASON_IO);
+                if (checkCallBack != null)
+                    checkCallBack.callBack(CHECK_FAILD);
+                coordinator.release(this, CHECK_FAILD);
+                return;
+            }
+            binding = true;
             LogUtil.d("VersionUpdateService", "bindService");
         }
     }
 
+    /**
+     * 停止更新:取消进行中的检查和下载并立即关闭连接,已下载部分保留,下次从断点继续
+     */
     public void stopUpdateVersion() {
         LogUtil.d("VersionUpdateService", "stopUpdateVersion");
+        if (pendingStart != null) {
+            handler.removeCallbacks(pendingStart);
+            pendingStart = null;
+        }
+        cancelTasks();
         unBindService();
     }
 
+    /**
+     * 暂停进行中的下载,断开连接但保留下载状态
+     */
+    public boolean pauseDownload() {
+        return downloadTask != null && downloadTask.pause();
+    }
+
+    public boolean resumeDownload() {
+        return downloadTask != null && downloadTask.resume();
+    }
+
     private void cancel() {
-        isCanceled = true;
+        VersionUpdateCoordinator.getInstance().setCanceled(true);
+        cancelTasks();
         unBindService();
     }
 
+    private void cancelTasks() {
+        if (checkTask != null) {
+            checkTask.cancel();
+            checkTask = null;
+        }
+        if (downloadTask != null) {
+            downloadTask.cancel();
+            downloadTask = null;
+        }
+    }
+
     private void unBindService() {
         if (isWaitForUpdate() || isWaitForDownload()) {
             return;
@@ -104,9 +273,23 @@ public class VersionUpdateHelper implements ServiceConnection {
             LogUtil.d("VersionUpdateService", "unBindService");
             context.unbindService(this);
             service = null;
+            VersionUpdateCoordinator.getInstance().release(this, USER_CANCELED);
+        } else if (service == null && binding) {
+            // 连接前就停止,不再开始检查
+            LogUtil.d("VersionUpdateService", "unBindService before connected");
+            binding = false;
+            context.unbindService(this);
+            VersionUpdateCoordinator.getInstance().release(this, USER_CANCELED);
         }
     }
 
+    private void dispatchCallBack(int code) {
+        if (checkCallBack != null) {
+            checkCallBack.callBack(code);
+        }
+        VersionUpdateCoordinator.getInstance().publish(code);
+    }
+
     private boolean isWaitForUpdate() {
         return waitForUpdateDialog != null && waitForUpdateDialog.isShowing();
     }
@@ -135,7 +318,7 @@ public class VersionUpdateHelper implements ServiceConnection {
             @Override
             public void onClick(DialogInterface dialog, int which) {
                 dialog.cancel();
-                service.doDownLoadTask();
+                downloadTask = service.doDownLoadTask();
             }
         });
         builer.setCancelable(false);
@@ -144,64 +327,81 @@ public class VersionUpdateHelper implements ServiceConnection {
 
     @Override
     public void onServiceConnected(ComponentName name, IBinder binder) {
+        binding = false;
+        UpdateMetrics.getInstance().end(UpdateMetrics.Stage.BIND);
         service = ((VersionUpdateService.LocalBinder) binder).getService();
+        service.setPrefetchEnabled(prefetch);
+        service.setCheckOffMainThread(deferredStart);
+        service.setCompactCheckUrl(compactCheckUrl);
         service.setCheckVersionCallBack(new VersionUpdateService.CheckVersionCallBack() {
             @Override
             public void onSuccess() {
                 VersionUpdateModel versionUpdateModel = service.getVersionUpdateModel();
+                boolean needUpgrade = service.shouldUpgrade();
 
                 VersionUpdateEvent versionUpdateEvent = new VersionUpdateEvent();
-                versionUpdateEvent.setShowTips(versionUpdateModel.isNeedUpgrade());
+                versionUpdateEvent.setShowTips(needUpgrade);
                 EventBus.getDefault().postSticky(versionUpdateEvent);
 
-                if (!versionUpdateModel.isNeedUpgrade()) {
+                if (!needUpgrade) {
                     if (toastInfo) {
                         ToastUtil.toast(context, "暂无新版本");
                     }
-                    if(checkCallBack != null){
-                        checkCallBack.callBack(DONOT_NEED_UPDATE);
-                    }
+                    dispatchCallBack(DONOT_NEED_UPDATE);
                     cancel();
                     return;
                 }
                 if (!versionUpdateModel.isMustUpgrade() && !showDialogOnStart) {
+                    // 不弹窗,但仍要把结果告诉调用方和等待中的回调
+                    dispatchCallBack(NEED_UPDATE);
                     cancel();
                     return;
                 }
-                if(checkCallBack != null){
-                    checkCallBack.callBack(NEED_UPDATE);
-                }
-                final AlertDialog.Builder builer = new AlertDialog.Builder(context);
-                builer.setTitle("版本升级");
-                builer.setMessage(versionUpdateModel.getDescription());
-                //当点确定按钮时从服务器上下载新的apk 然后安装
-                builer.setPositiveButton("立即更新", new DialogInterface.OnClickListener() {
+                dispatchCallBack(NEED_UPDATE);
+                final boolean mustUpgrade = versionUpdateModel.isMustUpgrade();
+                final UpdateTask task = checkTask;
+                // 更新说明可能需要单独请求,取回后再弹窗
+                service.loadDescription(new VersionUpdateService.DescriptionCallBack() {
                     @Override
-                    public void onClick(DialogInterface dialog, int which) {
-                        dialog.cancel();
-                        if (NetUtil.isWifi(context)) {
-                            service.doDownLoadTask();
-                        } else {
-                            showNotWifiDownloadDialog();
+                    public void onDescription(String description) {
+                        // 等待说明期间可能已停止更新或离开页面,此时不能再弹窗
+                        if (service == null || context == null)
+                            return;
+                        if ((task != null && task.isCanceled()) || VersionUpdateCoordinator.getInstance().isCanceled())
+                            return;
+                        if (context instanceof Activity && ((Activity) context).isFinishing())
+                            return;
+                        final AlertDialog.Builder builer = new AlertDialog.Builder(context);
+                        builer.setTitle("版本升级");
+                        builer.setMessage(description);
+                        //当点确定按钮时从服务器上下载新的apk 然后安装
+                        builer.setPositiveButton("立即更新", new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                dialog.cancel();
+                                if (NetUtil.isWifi(context)) {
+                                    downloadTask = service.doDownLoadTask();
+                                } else {
+                                    showNotWifiDownloadDialog();
+                                }
+                            }
+                        });
+
+                        //当点取消按钮时进行登录
+                        if (!mustUpgrade) {
+                            builer.setNegativeButton("稍后更新", new DialogInterface.OnClickListener() {
+                                public void onClick(DialogInterface dialog, int which) {
+                                    dialog.cancel();
+                                    cancel();
+                                    dispatchCallBack(USER_CANCELED);
+                                }
+                            });
                         }
+                        builer.setCancelable(false);
+                        waitForUpdateDialog = builer.create();
+                        waitForUpdateDialog.show();
                     }
                 });
-
-                //当点取消按钮时进行登录
-                if (!versionUpdateModel.isMustUpgrade()) {
-                    builer.setNegativeButton("稍后更新", new DialogInterface.OnClickListener() {
-                        public void onClick(DialogInterface dialog, int which) {
-                            dialog.cancel();
-                            cancel();
-                            if(checkCallBack != null){
-                                checkCallBack.callBack(USER_CANCELED);
-                            }
-                        }
-                    });
-                }
-                builer.setCancelable(false);
-                waitForUpdateDialog = builer.create();
-                waitForUpdateDialog.show();
             }
 
             @Override
@@ -210,9 +410,7 @@ public class VersionUpdateHelper implements ServiceConnection {
                     ToastUtil.toast(context, "检查失败,请检查网络设置");
                 }
                 unBindService();
-                if(checkCallBack != null){
-                    checkCallBack.callBack(CHECK_FAILD);
-                }
+                dispatchCallBack(CHECK_FAILD);
             }
         });
 
@@ -226,6 +424,7 @@ public class VersionUpdateHelper implements ServiceConnection {
                     progressDialog.setCancelable(false);
                     progressDialog.setCanceledOnTouchOutside(false);
                     progressDialog.setMessage("正在下载更新");
+                    progressDialog.setMax(100);
                     progressDialog.show();
                 }
             }
@@ -233,7 +432,6 @@ public class VersionUpdateHelper implements ServiceConnection {
             @Override
             public void inProgress(float progress, long total) {
                 if (progressDialog != null) {
-                    progressDialog.setMax(100);
                     progressDialog.setProgress((int) (progress * 100));
                 }
             }
@@ -255,7 +453,7 @@ public class VersionUpdateHelper implements ServiceConnection {
             }
         });
 
-        service.doCheckUpdateTask();
+        checkTask = service.doCheckUpdateTask(toastInfo);
     }
 
     @Override
@@ -272,6 +470,7 @@ public class VersionUpdateHelper implements ServiceConnection {
         }
         service = null;
         context = null;
+        VersionUpdateCoordinator.getInstance().release(this, CHECK_FAILD);
     }
 
 }
@@ -1,22 +1,34 @@
 package cn.gnsit.wenwan.app.service;
 
+import android.annotation.TargetApi;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageInstaller;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.widget.RemoteViews;
 
-import com.alibaba.fastjson.JSON;
 import com.nostra13.universalimageloader.cache.disc.naming.Md5FileNameGenerator;
 
 import org.greenrobot.eventbus.EventBus;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 import cn.gnsit.wenwan.app.R;
 import cn.gnsit.wenwan.app.activity.MainActivity;
@@ -25,32 +37,63 @@ import cn.gnsit.wenwan.app.base.MainApplication;
 import cn.gnsit.wenwan.app.event.VersionUpdateEvent;
 import cn.gnsit.wenwan.app.model.ErrorCode;
 import cn.gnsit.wenwan.app.model.VersionUpdateModel;
-import cn.gnsit.wenwan.app.net.DownloadCallBack;
-import cn.gnsit.wenwan.app.net.NetManager;
 import cn.gnsit.wenwan.app.net.RequestCallBack;
 import cn.gnsit.wenwan.app.utils.AppUtil;
+import cn.gnsit.wenwan.app.utils.ConnectivityMonitor;
 import cn.gnsit.wenwan.app.utils.FolderUtil;
 import cn.gnsit.wenwan.app.utils.LogUtil;
+import cn.gnsit.wenwan.app.utils.NetUtil;
 import cn.gnsit.wenwan.app.utils.StringUtil;
 import cn.gnsit.wenwan.app.utils.ToastUtil;
 import cn.gnsit.wenwan.app.utils.VersionUpdateUtil;
 import cn.gnsit.wenwan.app.wxapi.WXPayUtil;
 import okhttp3.Headers;
+import okhttp3.OkHttpClient;
 
 public class VersionUpdateService extends Service {
     private static final String TAG = VersionUpdateService.class.getSimpleName();
+    private static final String ACTION_PREFETCH = "cn.gnsit.wenwan.app.action.VERSION_PREFETCH";
+    private static final String ACTION_INSTALL_STATUS = "cn.gnsit.wenwan.app.action.VERSION_INSTALL_STATUS";
+    public static final long DEFAULT_CHECK_TIMEOUT = 20 * 1000;
     private LocalBinder binder = new LocalBinder();
 
     private DownLoadListener downLoadListener;
     private boolean downLoading;
+    private volatile boolean checking;
+    private boolean checkOffMainThread;
+    private int backgroundStartId;
+    private boolean prefetchEnabled;
+    private boolean prewarmEnabled = true;
+    private String compactCheckUrl;
+    private ApkPrefetcher prefetcher;
+    private int prefetchStartId;
     private int progress;
 
     private NotificationManager mNotificationManager;
-    private NotificationUpdaterThread notificationUpdaterThread;
+    private DownloadNotificationPublisher notificationPublisher;
+    private long notificationMinInterval = DownloadNotificationPublisher.DEFAULT_MIN_INTERVAL;
     private Notification.Builder notificationBuilder;
     private final int NOTIFICATION_ID = 100;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Executor listenerExecutor = ProgressDispatcher.looperExecutor(Looper.getMainLooper());
 
     private VersionUpdateModel versionUpdateModel;
+    private CheckResult checkResult;
+    private UpgradeExtras upgradeExtras;
+    private volatile ApkDownloader downloader;
+    private volatile DeltaUpdateStage deltaStage;
+    private volatile Future<?> transferRun;
+    private UpdateTask downloadTask;
+    private UpdateTask checkTask;
+    private long checkTimeout = DEFAULT_CHECK_TIMEOUT;
+    private long downloadTimeout;
+    private boolean segmentedDownload;
+    private volatile RateLimiter rateLimiter;
+    private volatile DownloadProfile downloadProfile;
+    private long rateLimitOverride = -1;
+    private int maxArtifactConcurrency = ArtifactScheduler.DEFAULT_MAX_CONCURRENCY;
+    private volatile List<File> splitFiles;
+    private volatile List<File> assetFiles;
 
     public VersionUpdateService() {
     }
@@ -59,6 +102,30 @@ public class VersionUpdateService extends Service {
     public void onCreate() {
         super.onCreate();
         LogUtil.d(TAG, "onCreate called");
+        VersionCheckCache.seed(this);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && VersionCheckScheduler.ACTION_BACKGROUND_CHECK.equals(intent.getAction())) {
+            LogUtil.d(TAG, "background check");
+            backgroundStartId = startId;
+            doCheckUpdateTask(false);
+        } else if (ACTION_PREFETCH.equals(intent == null ? null : intent.getAction())) {
+            if (prefetcher == null && !downLoading) {
+                // 预下载在这次启动送达前已经结束
+                stopSelf(startId);
+            } else {
+                LogUtil.d(TAG, "keep alive for prefetch");
+                prefetchStartId = startId;
+            }
+        } else if (ACTION_INSTALL_STATUS.equals(intent == null ? null : intent.getAction())) {
+            onInstallStatus(intent);
+            stopSelf(startId);
+        } else {
+            stopSelf(startId);
+        }
+        return START_NOT_STICKY;
     }
 
     @Override
@@ -67,6 +134,21 @@ public class VersionUpdateService extends Service {
         LogUtil.d(TAG, "onDestroy called");
         setDownLoadListener(null);
         setCheckVersionCallBack(null);
+        stopNotificationPublisher();
+        if (prefetcher != null) {
+            prefetcher.stop();
+            prefetcher = null;
+        }
+        if (checkTask != null) {
+            checkTask.cancel();
+            checkTask = null;
+        }
+        if (downloadTask != null) {
+            // 已下载的部分保留在日志中,下次继续
+            downloadTask.cancel();
+            downloadTask = null;
+        }
+        stopTransfer();
         stopDownLoadForground();
         if (mNotificationManager != null)
             mNotificationManager.cancelAll();
@@ -89,26 +171,137 @@ public class VersionUpdateService extends Service {
         void onError();
     }
 
+    public interface DescriptionCallBack {
+        void onDescription(String description);
+    }
+
     private CheckVersionCallBack checkVersionCallBack;
 
     public void setCheckVersionCallBack(CheckVersionCallBack checkVersionCallBack) {
         this.checkVersionCallBack = checkVersionCallBack;
     }
 
-    private class NotificationUpdaterThread extends Thread {
-        @Override
-        public void run() {
-            while (true) {
-                notificationBuilder.setContentTitle("正在下载更新" + progress + "%"); // the label of the entry
-                notificationBuilder.setProgress(100, progress, false);
+    /**
+     * 设置下载通知两次刷新之间的最小间隔(毫秒)
+     *
+     * @param notificationMinInterval
+     */
+    public void setNotificationMinInterval(long notificationMinInterval) {
+        this.notificationMinInterval = notificationMinInterval;
+    }
+
+    private void startNotificationPublisher() {
+        stopNotificationPublisher();
+        notificationPublisher = new DownloadNotificationPublisher(new DownloadNotificationPublisher.Sink() {
+            @Override
+            public void post(int percent) {
+                if (notificationBuilder == null)
+                    return;
+                notificationBuilder.setContentTitle("正在下载更新" + percent + "%"); // the label of the entry
+                notificationBuilder.setProgress(100, percent, false);
                 mNotificationManager.notify(NOTIFICATION_ID, notificationBuilder.getNotification());
-                if (progress >= 100) {
-                    break;
-                }
             }
+
+            @Override
+            public void cancel() {
+                if (mNotificationManager != null)
+                    mNotificationManager.cancel(NOTIFICATION_ID);
+            }
+        }, mainHandler, notificationMinInterval);
+    }
+
+    private void stopNotificationPublisher() {
+        if (notificationPublisher != null) {
+            notificationPublisher.shutdown();
+            notificationPublisher = null;
+        }
+    }
+
+    /**
+     * 是否使用多连接分段下载,分段数根据当前网络类型决定
+     *
+     * @param segmentedDownload
+     */
+    public void setSegmentedDownload(boolean segmentedDownload) {
+        this.segmentedDownload = segmentedDownload;
+    }
+
+    /**
+     * 检查接口的超时时间(毫秒),0表示不限时
+     *
+     * @param checkTimeout
+     */
+    public void setCheckTimeout(long checkTimeout) {
+        this.checkTimeout = checkTimeout;
+    }
+
+    /**
+     * 下载的总超时时间(毫秒),暂停期间不计时,默认不限时
+     *
+     * @param downloadTimeout
+     */
+    public void setDownloadTimeout(long downloadTimeout) {
+        this.downloadTimeout = downloadTimeout;
+    }
+
+    /**
+     * 是否在后台线程中读取版本号、查缓存和解析响应,只在回调时切回主线程
+     *
+     * @param checkOffMainThread
+     */
+    public void setCheckOffMainThread(boolean checkOffMainThread) {
+        this.checkOffMainThread = checkOffMainThread;
+    }
+
+    /**
+     * 多文件更新时同时下载的文件数
+     *
+     * @param maxArtifactConcurrency
+     */
+    public void setMaxArtifactConcurrency(int maxArtifactConcurrency) {
+        this.maxArtifactConcurrency = maxArtifactConcurrency;
+    }
+
+    /**
+     * 最近一次多文件更新下载完成的资源包,没有时为null
+     */
+    public List<File> getAssetFiles() {
+        return assetFiles;
+    }
+
+    /**
+     * 设置下载限速(每秒字节数),对进行中的下载立即生效;
+     * RateLimiter.UNLIMITED表示不限速,负数表示恢复为按网络类型的默认值
+     *
+     * @param bytesPerSecond
+     */
+    public void setDownloadRateLimit(long bytesPerSecond) {
+        rateLimitOverride = bytesPerSecond;
+        RateLimiter limiter = rateLimiter;
+        if (limiter != null) {
+            limiter.setRate(bytesPerSecond >= 0 ? bytesPerSecond
+                    : DownloadProfile.forNetwork(ConnectivityMonitor.get(this).snapshot()).getRateLimit());
         }
     }
 
+    /**
+     * 设置更新流程耗时与计数的输出,传null恢复为不记录
+     *
+     * @param exporter
+     */
+    public static void setMetricsExporter(UpdateMetrics.Exporter exporter) {
+        UpdateMetrics.getInstance().setExporter(exporter);
+    }
+
+    /**
+     * 设置下载目录中安装包缓存的容量上限(字节)
+     *
+     * @param maxBytes
+     */
+    public void setApkCacheMaxBytes(long maxBytes) {
+        ApkCache.getInstance(FolderUtil.getDownloadCacheFolder()).setMaxBytes(maxBytes);
+    }
+
     public boolean isDownLoading() {
         return downLoading;
     }
@@ -145,109 +338,825 @@ public class VersionUpdateService extends Service {
         stopForeground(true);
     }
 
-    public void doCheckUpdateTask() {
+    /**
+     * 检查到新版本后是否预先建立到下载服务器的连接
+     *
+     * @param prewarmEnabled
+     */
+    public void setPrewarmEnabled(boolean prewarmEnabled) {
+        this.prewarmEnabled = prewarmEnabled;
+    }
+
+    /**
+     * 设置后版本检查直接请求该地址,通过Accept协商紧凑的二进制编码,更新说明在对话框显示时才单独获取;
+     * 为null时(默认)经ApiManager请求JSON
+     *
+     * @param compactCheckUrl
+     */
+    public void setCompactCheckUrl(String compactCheckUrl) {
+        this.compactCheckUrl = compactCheckUrl;
+    }
+
+    public UpdateTask doCheckUpdateTask() {
+        return doCheckUpdateTask(false);
+    }
+
+    /**
+     * 检查新版本,返回的句柄可取消;取消后本次结果不再回调,超时按检查失败回调
+     *
+     * @param force 为true时(如用户手动检查)忽略失败退避
+     */
+    public UpdateTask doCheckUpdateTask(final boolean force) {
+        if (checking && checkTask != null)
+            return checkTask;
+        final CompactCheckClient checkClient = compactCheckUrl == null ? null : new CompactCheckClient(compactCheckUrl);
+        final UpdateTask handle = new UpdateTask() {
+            @Override
+            protected void onCancel() {
+                // 经ApiManager发出的请求无法中断,只丢弃它的结果
+                if (checkClient != null)
+                    checkClient.cancel();
+                checking = false;
+                if (isTimedOut()) {
+                    LogUtil.d(TAG, "check timed out");
+                    UpdateMetrics.getInstance().failure(UpdateMetrics.Stage.CHECK, UpdateMetrics.REASON_IO);
+                    deliverCheckError();
+                }
+            }
+        };
+        checking = true;
+        checkTask = handle;
+        handle.setTimeout(checkTimeout);
+        if (checkOffMainThread && Looper.myLooper() == Looper.getMainLooper()) {
+            UpdateExecutors.background().execute(new Runnable() {
+                @Override
+                public void run() {
+                    runCheck(handle, force, checkClient);
+                }
+            });
+        } else {
+            runCheck(handle, force, checkClient);
+        }
+        return handle;
+    }
+
+    /**
+     * @param checkClient 不为null时直接请求协商紧凑编码的检查地址,否则经ApiManager请求JSON
+     */
+    private void runCheck(final UpdateTask handle, boolean force, CompactCheckClient checkClient) {
+        if (handle.isCanceled())
+            return;
         final int currentBuild = AppUtil.getVersionCode(this);
+        final VersionCheckCache cache = VersionCheckCache.getInstance(this);
+        final VersionCheckScheduler scheduler = VersionCheckScheduler.getInstance(this);
+        if (cache.isFresh(currentBuild)) {
+            LogUtil.d(TAG, "check result served from cache");
+            checking = false;
+            onCheckResult(cache.getResult(), currentBuild, handle);
+            return;
+        }
+        if (!force && scheduler.isBackingOff()) {
+            LogUtil.d(TAG, "check backing off");
+            checking = false;
+            if (cache.getResult() != null) {
+                onCheckResult(cache.getResult(), currentBuild, handle);
+            } else {
+                onCheckError(handle);
+            }
+            return;
+        }
         String client = "android";
         String q = "needUpgrade";
+        final UpdateMetrics metrics = UpdateMetrics.getInstance();
+        metrics.begin(UpdateMetrics.Stage.CHECK);
+        if (checkClient != null) {
+            runCompactCheck(handle, checkClient, q, currentBuild, client);
+            return;
+        }
         ApiManager.getInstance().versionApi.upgradeRecords(q, currentBuild, client, new RequestCallBack() {
             @Override
-            public void onSuccess(Headers headers, String response) {
+            public void onSuccess(final Headers headers, final String response) {
+                if (handle.isCanceled())
+                    return;
+                metrics.end(UpdateMetrics.Stage.CHECK);
+                if (checkOffMainThread && Looper.myLooper() == Looper.getMainLooper()) {
+                    UpdateExecutors.background().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onCheckResponse(headers, response, null, currentBuild, handle);
+                        }
+                    });
+                } else {
+                    onCheckResponse(headers, response, null, currentBuild, handle);
+                }
+            }
+
+            @Override
+            public void onError(int code, String response) {
+                if (handle.isCanceled())
+                    return;
+                checking = false;
+                // ApiManager不带If-None-Match,JSON接口不会返回304;响应未变化由onCheckResponse按ETag判断
+                metrics.failure(UpdateMetrics.Stage.CHECK, UpdateMetrics.REASON_HTTP);
+                scheduler.onCheckFailed();
+                onCheckError(handle);
+            }
+        });
+    }
+
+    private void runCompactCheck(final UpdateTask handle, final CompactCheckClient checkClient, final String q,
+                                 final int currentBuild, final String client) {
+        final VersionCheckCache cache = VersionCheckCache.getInstance(this);
+        final VersionCheckScheduler scheduler = VersionCheckScheduler.getInstance(this);
+        final UpdateMetrics metrics = UpdateMetrics.getInstance();
+        UpdateExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                CompactCheckClient.Result response;
                 try {
-                    versionUpdateModel = JSON.parseObject(response, VersionUpdateModel.class);
-                    if (versionUpdateModel.getBuild() < currentBuild) {
-                        versionUpdateModel.setNeedUpgrade(false);
-                    }
-                    //TEST DATA
-                    versionUpdateModel.setNeedUpgrade(true);
+                    response = checkClient.check(q, currentBuild, client, cache.getEtag());
+                } catch (IOException e) {
+                    if (handle.isCanceled())
+                        return;
+                    LogUtil.d(TAG, "compact check failed: " + e.getMessage());
+                    checking = false;
+                    metrics.failure(UpdateMetrics.Stage.CHECK, UpdateMetrics.REASON_IO);
+                    scheduler.onCheckFailed();
+                    onCheckError(handle);
+                    return;
+                }
+                if (handle.isCanceled())
+                    return;
+                int code = response.getCode();
+                if (code == 304 && cache.getResult() != null) {
+                    checking = false;
+                    metrics.end(UpdateMetrics.Stage.CHECK);
+                    cache.refresh(response.getHeaders());
+                    scheduler.onCheckSuccess(response.getHeaders(), cache.getResult().getExtras().getRetryAfter());
+                    onCheckResult(cache.getResult(), currentBuild, handle);
+                    return;
+                }
+                if (code < 200 || code >= 300) {
+                    checking = false;
+                    metrics.failure(UpdateMetrics.Stage.CHECK, UpdateMetrics.REASON_HTTP);
+                    scheduler.onCheckFailed();
+                    onCheckError(handle);
+                    return;
+                }
+                metrics.end(UpdateMetrics.Stage.CHECK);
+                onCheckResponse(response.getHeaders(), response.getJsonBody(), response.getCompactBody(), currentBuild, handle);
+            }
+        });
+    }
 
-                    MainApplication.getInstance().setVersionUpdateModelCache(versionUpdateModel);
-                    if (checkVersionCallBack != null)
-                        checkVersionCallBack.onSuccess();
-                } catch (Exception e) {
-                    ToastUtil.toast(VersionUpdateService.this, "获取版本信息失败");
+    /**
+     * @param compact 紧凑编码的响应体,为null时解析JSON格式的response
+     */
+    private void onCheckResponse(Headers headers, String response, byte[] compact, final int currentBuild, UpdateTask handle) {
+        final VersionCheckCache cache = VersionCheckCache.getInstance(this);
+        final VersionCheckScheduler scheduler = VersionCheckScheduler.getInstance(this);
+        final UpdateMetrics metrics = UpdateMetrics.getInstance();
+        checking = false;
+        try {
+            CheckResult result;
+            if (cache.isNotModified(currentBuild, headers)) {
+                cache.refresh(headers);
+                result = cache.getResult();
+            } else {
+                metrics.begin(UpdateMetrics.Stage.PARSE);
+                result = compact != null ? CompactCheckCodec.decode(compact) : CheckResult.parse(response);
+                metrics.end(UpdateMetrics.Stage.PARSE);
+                if (compact != null) {
+                    cache.putCompact(currentBuild, headers, compact, result);
+                } else {
+                    cache.put(currentBuild, headers, response, result);
                 }
             }
+            scheduler.onCheckSuccess(headers, result.getExtras().getRetryAfter());
+            onCheckResult(result, currentBuild, handle);
+        } catch (Exception e) {
+            metrics.failure(UpdateMetrics.Stage.PARSE, UpdateMetrics.REASON_PARSE);
+            scheduler.onCheckFailed();
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    ToastUtil.toast(VersionUpdateService.this, "获取版本信息失败");
+                }
+            });
+            // 与网络错误一样回调onError,否则helper一直绑定并占着协调器,之后的检查都在等一个不会发布的结果
+            onCheckError(handle);
+        }
+    }
+
+    private void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            mainHandler.post(runnable);
+        }
+    }
+
+    private void onCheckError(final UpdateTask handle) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onCheckError(handle);
+                }
+            });
+            return;
+        }
+        if (handle.isCanceled())
+            return;
+        handle.finish();
+        deliverCheckError();
+    }
 
+    private void deliverCheckError() {
+        runOnMainThread(new Runnable() {
             @Override
-            public void onError(int code, String response) {
+            public void run() {
                 if (checkVersionCallBack != null) {
                     checkVersionCallBack.onError();
                 }
+                stopBackgroundCheck();
             }
         });
     }
 
-    public void doDownLoadTask() {
-        if (mNotificationManager == null)
-            mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+    private void stopBackgroundCheck() {
+        if (backgroundStartId != 0) {
+            stopSelf(backgroundStartId);
+            backgroundStartId = 0;
+        }
+    }
 
-        starDownLoadForground();
+    private void onCheckResult(final CheckResult result, final int currentBuild, final UpdateTask handle) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            // 更新说明不在这里读取,对话框真正显示时由loadDescription在后台获取
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onCheckResult(result, currentBuild, handle);
+                }
+            });
+            return;
+        }
+        if (handle.isCanceled())
+            return;
+        handle.finish();
+        checkResult = result;
+        versionUpdateModel = result.getModel();
+        upgradeExtras = result.getExtras();
+        if (versionUpdateModel.getBuild() < currentBuild) {
+            versionUpdateModel.setNeedUpgrade(false);
+        }
+        //TEST DATA
+        versionUpdateModel.setNeedUpgrade(true);
 
-        notificationUpdaterThread = new NotificationUpdaterThread();
-        notificationUpdaterThread.start();
+        MainApplication.getInstance().setVersionUpdateModelCache(versionUpdateModel);
+        if (checkVersionCallBack != null)
+            checkVersionCallBack.onSuccess();
+        maybeStartPrefetch();
+        maybePrewarm();
+        stopBackgroundCheck();
+    }
 
-        final File fileDir = FolderUtil.getDownloadCacheFolder();
-        final String url = versionUpdateModel.getUpgradeUrl();
+    private File getApkFile(String url) {
         final String fileName_ = url.substring(url.lastIndexOf("/") + 1);
-        final String fileName = StringUtil.string2MD5(fileName_) + ".apk";
+        return new File(FolderUtil.getDownloadCacheFolder(), StringUtil.string2MD5(fileName_) + ".apk");
+    }
 
-        downLoading = true;
+    /**
+     * 是否在检查到新版本后,于不计费的wifi下静默预下载安装包
+     *
+     * @param prefetchEnabled
+     */
+    public void setPrefetchEnabled(boolean prefetchEnabled) {
+        this.prefetchEnabled = prefetchEnabled;
+    }
 
-        if (downLoadListener != null) {
-            downLoadListener.begain();
+    private void maybeStartPrefetch() {
+        if (!prefetchEnabled || prefetcher != null || downLoading || !shouldUpgrade())
+            return;
+        final String url = versionUpdateModel.getUpgradeUrl();
+        final File destFile = getApkFile(url);
+        final String expectedHash = upgradeExtras == null ? null : upgradeExtras.getTargetHash();
+        if (ApkCache.getInstance(destFile.getParentFile()).get(destFile.getName(), versionUpdateModel.getBuild(), expectedHash) != null)
+            return;
+        if (!ApkPrefetcher.isAllowed(this, ConnectivityMonitor.get(this).snapshot()))
+            return;
+        prefetcher = new ApkPrefetcher(this, url, destFile, expectedHash, versionUpdateModel.getBuild(),
+                new ApkPrefetcher.Callback() {
+                    @Override
+                    public void onPrefetchFinished(final ApkPrefetcher finished, boolean success) {
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (prefetcher == finished)
+                                    prefetcher = null;
+                                stopPrefetchKeepAlive();
+                            }
+                        });
+                    }
+                });
+        // 解绑后继续预下载,预下载结束或被接管的下载结束后stopSelf
+        startService(new Intent(this, VersionUpdateService.class).setAction(ACTION_PREFETCH));
+        prefetcher.start();
+    }
+
+    /**
+     * 结束预下载期间的启动状态;被用户触发的下载接管时等下载结束再停止,只停止预下载对应的那次启动
+     */
+    private void stopPrefetchKeepAlive() {
+        if (prefetchStartId == 0 || prefetcher != null || downLoading)
+            return;
+        stopSelf(prefetchStartId);
+        prefetchStartId = 0;
+    }
+
+    /**
+     * 用户决定是否更新期间预热下载连接;正在下载、预下载或安装包已缓存时不需要
+     */
+    private void maybePrewarm() {
+        if (!prewarmEnabled || downLoading || prefetcher != null || !shouldUpgrade())
+            return;
+        String url = versionUpdateModel.getUpgradeUrl();
+        if (url == null)
+            return;
+        String expectedHash = upgradeExtras == null ? null : upgradeExtras.getTargetHash();
+        File destFile = getApkFile(url);
+        if (ApkCache.getInstance(destFile.getParentFile()).get(destFile.getName(), versionUpdateModel.getBuild(), expectedHash) != null)
+            return;
+        ConnectionWarmer.warm(url);
+        if (upgradeExtras != null && upgradeExtras.hasPatch())
+            ConnectionWarmer.warm(upgradeExtras.getPatchUrl());
+    }
+
+    /**
+     * 下载新版本,返回的句柄可取消、暂停和恢复;暂停和取消都保留已下载部分,下次从断点继续
+     */
+    public UpdateTask doDownLoadTask() {
+        if (downLoading && downloadTask != null)
+            return downloadTask;
+        final String url = versionUpdateModel.getUpgradeUrl();
+        final File destFile = getApkFile(url);
+        final File fileDir = destFile.getParentFile();
+        final String fileName = destFile.getName();
+        final UpgradeExtras extras = upgradeExtras;
+        final String expectedHash = extras == null ? null : extras.getTargetHash();
+        final boolean multiArtifact = extras != null && extras.hasArtifacts();
+        splitFiles = null;
+
+        //已下载并校验过的安装包直接安装,多文件更新由ArtifactScheduler逐个检查缓存
+        File cached = multiArtifact ? null : ApkCache.getInstance(fileDir).get(fileName, versionUpdateModel.getBuild(), expectedHash);
+        if (cached != null) {
+            LogUtil.d(TAG, "apk already downloaded");
+            onDownLoadSuccess(cached);
+            return UpdateTask.finished();
         }
 
-        NetManager.getInstance().download(url, fileDir.getAbsolutePath(), fileName, new DownloadCallBack() {
+        if (mNotificationManager == null)
+            mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+
+        starDownLoadForground();
+
+        startNotificationPublisher();
+
+        downLoading = true;
+
+        final ProgressDispatcher dispatcher = new ProgressDispatcher(listenerExecutor, new DownLoadListener() {
             @Override
-            public void inProgress(float progress_, long total) {
-                progress = (int) (progress_ * 100);
+            public void begain() {
                 if (downLoadListener != null) {
-                    downLoadListener.inProgress(progress_, total);
-                }
-                if (progress >= 100) {
-                    mNotificationManager.cancelAll();
+                    downLoadListener.begain();
                 }
             }
 
             @Override
-            public void onSuccess(Headers headers, String response) {
-                final File destFile = new File(fileDir.getAbsolutePath(), fileName);
-                if (downLoadListener != null) {
-                    downLoadListener.downLoadLatestSuccess(destFile);
-                }
-                downLoading = false;
-                installApk(destFile, VersionUpdateService.this);
+            public void inProgress(float progress, long total) {
+                onDownLoadProgress(progress, total);
             }
 
             @Override
-            public void onError(int code, String response) {
-                downLoading = false;
-                if (mNotificationManager != null)
-                    mNotificationManager.cancelAll();
-                if (downLoadListener != null) {
-                    downLoadListener.downLoadLatestFailed();
+            public void downLoadLatestSuccess(File file) {
+                onDownLoadSuccess(file);
+            }
+
+            @Override
+            public void downLoadLatestFailed() {
+                onDownLoadFailed();
+            }
+        });
+        dispatcher.begin();
+
+        //预下载进行中时接管,已下载部分通过续传继续
+        final Future<?> prefetchRun = prefetcher == null ? null : prefetcher.takeover();
+        prefetcher = null;
+
+        final UpdateTask handle = new UpdateTask() {
+            @Override
+            protected void onCancel() {
+                stopTransfer();
+            }
+
+            @Override
+            protected void onPause() {
+                stopTransfer();
+            }
+
+            @Override
+            protected void onResume() {
+                // 等暂停前的传输完全退出后再写同一个文件
+                startTransfer(this, dispatcher, transferRun, url, destFile, expectedHash, extras);
+            }
+
+            @Override
+            public boolean isPausable() {
+                return true;
+            }
+        };
+        handle.setTimeout(downloadTimeout);
+        downloadTask = handle;
+        startTransfer(handle, dispatcher, prefetchRun, url, destFile, expectedHash, extras);
+        return handle;
+    }
+
+    /**
+     * 中断当前传输并立即关闭连接,已下载部分保留在续传日志中
+     */
+    private void stopTransfer() {
+        DeltaUpdateStage delta = deltaStage;
+        if (delta != null)
+            delta.cancel();
+        ApkDownloader current = downloader;
+        if (current != null)
+            current.cancel();
+    }
+
+    /**
+     * @param previousRun 仍可能在写同一文件的任务(被接管的预下载或暂停前的传输),开始前等待其结束
+     */
+    private void startTransfer(final UpdateTask handle, final ProgressDispatcher dispatcher, final Future<?> previousRun,
+                               final String url, final File destFile, final String expectedHash,
+                               final UpgradeExtras extras) {
+        final File fileDir = destFile.getParentFile();
+        final boolean multiArtifact = extras != null && extras.hasArtifacts();
+        final ApkDownloader task = createDownloader();
+        downloader = task;
+        final int build = versionUpdateModel.getBuild();
+        final DownloadProfile profile = downloadProfile;
+        final RateLimiter limiter = rateLimiter;
+        final DeltaUpdateStage delta = new DeltaUpdateStage(UpdateHttpClient.getInstance().getClient(), profile, limiter,
+                new File(getApplicationInfo().sourceDir));
+        deltaStage = delta;
+        transferRun = UpdateExecutors.download().submit(new Runnable() {
+            @Override
+            public void run() {
+                if (previousRun != null) {
+                    try {
+                        previousRun.get();
+                    } catch (Exception ignored) {
+                    }
+                }
+                final UpdateMetrics metrics = UpdateMetrics.getInstance();
+                final long startNanos = System.nanoTime();
+                metrics.begin(UpdateMetrics.Stage.FIRST_BYTE);
+                metrics.begin(UpdateMetrics.Stage.DOWNLOAD);
+                ApkDownloader.Listener listener = new ApkDownloader.Listener() {
+                    private long lastReceived = -1;
+                    private long downloaded;
+
+                    @Override
+                    public void onProgress(long received, long total) {
+                        // 第一次回调是传输开始前已有的字节数(续传起点),不计入本次下载量,之后按差值累计
+                        if (lastReceived < 0) {
+                            metrics.end(UpdateMetrics.Stage.FIRST_BYTE);
+                        } else if (received > lastReceived) {
+                            metrics.addBytes(received - lastReceived);
+                            downloaded += received - lastReceived;
+                        }
+                        lastReceived = received;
+                        dispatcher.progress(received, total);
+                    }
+
+                    @Override
+                    public void onSuccess(File file) {
+                        if (expectedHash == null && !verifyApk(url, file, profile, limiter)) {
+                            onError(ApkDownloader.ERROR_VERIFY, "apk corrupted");
+                            return;
+                        }
+                        if (task instanceof ArtifactScheduler) {
+                            splitFiles = ((ArtifactScheduler) task).getSplitFiles();
+                            assetFiles = ((ArtifactScheduler) task).getAssetFiles();
+                        }
+                        metrics.end(UpdateMetrics.Stage.DOWNLOAD);
+                        metrics.throughput(downloaded, System.nanoTime() - startNanos);
+                        ApkCache.getInstance(fileDir).put(file, build, DownloadJournal.load(file).getSha256());
+                        handle.finish();
+                        dispatcher.success(file);
+                    }
+
+                    @Override
+                    public void onError(int code, String message) {
+                        // 暂停时保持下载状态,等待恢复
+                        if (handle.getState() == UpdateTask.STATE_PAUSED) {
+                            LogUtil.d(TAG, "download paused");
+                            return;
+                        }
+                        if (handle.isTimedOut())
+                            LogUtil.d(TAG, "download timed out");
+                        LogUtil.d(TAG, "download failed " + code + ": " + message);
+                        metrics.failure(UpdateMetrics.Stage.DOWNLOAD, UpdateMetrics.reasonOf(code));
+                        handle.finish();
+                        dispatcher.failed();
+                    }
+                };
+                if (handle.getState() != UpdateTask.STATE_RUNNING) {
+                    listener.onError(ApkDownloader.ERROR_CANCELED, "canceled before start");
+                    return;
+                }
+                try {
+                    if (!multiArtifact && delta.isApplicable(extras) && delta.run(extras, destFile, listener)) {
+                        listener.onSuccess(destFile);
+                        return;
+                    }
+                    task.download(url, destFile, expectedHash, listener);
+                } catch (RuntimeException e) {
+                    // 如检查结果中的下载地址无法解析;没有人取这个Future的结果,不在这里回调的话下载状态和通知会一直留着
+                    LogUtil.d(TAG, "download crashed: " + e);
+                    listener.onError(ApkDownloader.ERROR_IO, String.valueOf(e.getMessage()));
                 }
             }
         });
     }
 
+    /**
+     * 服务端没有提供摘要时,安装前按ZIP中央目录检查安装包,损坏的区间单独重新下载,与本次下载使用相同的配置和限速
+     */
+    private boolean verifyApk(String url, File file, DownloadProfile profile, RateLimiter limiter) {
+        try {
+            ApkValidator.Result result = ApkValidator.validate(file);
+            if (result.isValid())
+                return true;
+            if (result.isStructureValid()) {
+                LogUtil.d(TAG, "corrupted ranges " + result.getBadRanges());
+                String source = DownloadJournal.load(file).getUrl();
+                ResumableDownloader repairer = new ResumableDownloader(UpdateHttpClient.getInstance().getClient(),
+                        profile, limiter);
+                if (repairer.repair(source != null ? source : url, file, result.getBadRanges())
+                        && ApkValidator.validate(file).isValid())
+                    return true;
+            }
+        } catch (IOException e) {
+            LogUtil.d(TAG, "validate apk failed: " + e.getMessage());
+        }
+        DownloadJournal.load(file).delete();
+        file.delete();
+        return false;
+    }
+
+    /**
+     * 清单中没有基础安装包时,用upgradeUrl补上,优先级最高
+     */
+    private List<UpdateArtifact> buildManifest(UpgradeExtras extras) {
+        List<UpdateArtifact> manifest = new ArrayList<>(extras.getArtifacts());
+        for (UpdateArtifact artifact : manifest) {
+            if (UpdateArtifact.TYPE_APK.equals(artifact.getType()))
+                return manifest;
+        }
+        UpdateArtifact base = new UpdateArtifact();
+        base.setName("base");
+        base.setType(UpdateArtifact.TYPE_APK);
+        base.setUrl(versionUpdateModel.getUpgradeUrl());
+        base.setSha256(extras.getTargetHash());
+        base.setPriority(Integer.MIN_VALUE);
+        manifest.add(0, base);
+        return manifest;
+    }
+
+    private ApkDownloader createDownloader() {
+        OkHttpClient client = UpdateHttpClient.getInstance().getClient();
+        DownloadProfile profile = DownloadProfile.forNetwork(ConnectivityMonitor.get(this).snapshot());
+        rateLimiter = new RateLimiter(rateLimitOverride >= 0 ? rateLimitOverride : profile.getRateLimit());
+        downloadProfile = profile;
+        LogUtil.d(TAG, "download profile " + profile.getName() + ", rate " + rateLimiter.getRate());
+        if (upgradeExtras != null && upgradeExtras.hasArtifacts()) {
+            return new ArtifactScheduler(client, profile, rateLimiter, buildManifest(upgradeExtras),
+                    versionUpdateModel.getBuild(), maxArtifactConcurrency);
+        }
+        if (upgradeExtras != null && !upgradeExtras.getMirrors().isEmpty()) {
+            List<String> urls = new ArrayList<>();
+            urls.add(versionUpdateModel.getUpgradeUrl());
+            for (String mirror : upgradeExtras.getMirrors()) {
+                if (!urls.contains(mirror))
+                    urls.add(mirror);
+            }
+            return new MirrorDownloader(client, profile, rateLimiter, urls, RetryPolicy.DEFAULT);
+        }
+        if (segmentedDownload) {
+            int segmentCount = SegmentedDownloader.segmentCountFor(NetUtil.getNetType(this));
+            if (segmentCount > 1)
+                return new SegmentedDownloader(client, profile, rateLimiter, segmentCount);
+        }
+        return new ResumableDownloader(client, profile, rateLimiter);
+    }
+
+    private void onDownLoadProgress(float progress_, long total) {
+        progress = (int) (progress_ * 100);
+        if (notificationPublisher != null) {
+            notificationPublisher.onProgress(progress);
+        }
+        if (downLoadListener != null) {
+            downLoadListener.inProgress(progress_, total);
+        }
+        if (progress >= 100) {
+            stopNotificationPublisher();
+            mNotificationManager.cancelAll();
+        }
+    }
+
+    private void onDownLoadSuccess(File destFile) {
+        downloadTask = null;
+        downloader = null;
+        deltaStage = null;
+        stopNotificationPublisher();
+        if (downLoadListener != null) {
+            downLoadListener.downLoadLatestSuccess(destFile);
+        }
+        downLoading = false;
+        installApk(destFile, VersionUpdateService.this);
+        stopPrefetchKeepAlive();
+    }
+
+    private void onDownLoadFailed() {
+        downloadTask = null;
+        downloader = null;
+        deltaStage = null;
+        downLoading = false;
+        stopNotificationPublisher();
+        if (mNotificationManager != null)
+            mNotificationManager.cancelAll();
+        if (downLoadListener != null) {
+            downLoadListener.downLoadLatestFailed();
+        }
+        stopPrefetchKeepAlive();
+    }
+
     public VersionUpdateModel getVersionUpdateModel() {
         return versionUpdateModel;
     }
 
+    /**
+     * 有新版本且本设备在灰度放量范围内(强制更新不受灰度限制)
+     */
+    public boolean shouldUpgrade() {
+        return versionUpdateModel != null && versionUpdateModel.isNeedUpgrade()
+                && RolloutGate.isEligible(this, versionUpdateModel, upgradeExtras);
+    }
+
+    /**
+     * 更新说明,第一次调用时才从原文解析,不发网络请求;紧凑编码的检查结果在{@link #loadDescription}取回之前为null
+     */
+    public String getDescription() {
+        return checkResult == null ? null : checkResult.getDescription();
+    }
+
+    /**
+     * 在后台读取或获取更新说明,结果在主线程回调,获取失败时为null
+     */
+    public void loadDescription(final DescriptionCallBack callBack) {
+        final CheckResult result = checkResult;
+        if (result == null || result.isDescriptionLoaded()) {
+            callBack.onDescription(result == null ? null : result.getDescription());
+            return;
+        }
+        UpdateExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                final String description = result.loadDescription();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callBack.onDescription(description);
+                    }
+                });
+            }
+        });
+    }
+
+    public UpgradeExtras getUpgradeExtras() {
+        return upgradeExtras;
+    }
+
     public void setDownLoadListener(DownLoadListener downLoadListener) {
         this.downLoadListener = downLoadListener;
     }
 
+    /**
+     * 设置DownLoadListener回调所在的线程,默认为主线程
+     *
+     * @param listenerExecutor
+     */
+    public void setListenerExecutor(Executor listenerExecutor) {
+        this.listenerExecutor = listenerExecutor;
+    }
+
     //安装apk
     public void installApk(File file, Context context) {
+        ApkCache.getInstance(file.getParentFile()).touch(file);
+        List<File> splits = splitFiles;
+        if (splits != null && !splits.isEmpty() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            installSplits(file, splits);
+            return;
+        }
         Intent intent = new Intent();
         intent.setAction(Intent.ACTION_VIEW);
         intent.addCategory(Intent.CATEGORY_DEFAULT);
         intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
         //执行的数据类型
         intent.setDataAndType(Uri.fromFile(file), "application/vnd.android.package-archive");
+        UpdateMetrics.getInstance().begin(UpdateMetrics.Stage.INSTALL);
         context.startActivity(intent);
+        UpdateMetrics.getInstance().end(UpdateMetrics.Stage.INSTALL);
+    }
+
+    /**
+     * 拆分安装包只能通过PackageInstaller会话一起安装,写入会话在后台线程进行
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void installSplits(final File base, final List<File> splits) {
+        UpdateMetrics.getInstance().begin(UpdateMetrics.Stage.INSTALL);
+        UpdateExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                PackageInstaller installer = getPackageManager().getPackageInstaller();
+                PackageInstaller.Session session = null;
+                try {
+                    int sessionId = installer.createSession(
+                            new PackageInstaller.SessionParams(PackageInstaller.SessionParams.MODE_FULL_INSTALL));
+                    session = installer.openSession(sessionId);
+                    List<File> files = new ArrayList<>();
+                    files.add(base);
+                    files.addAll(splits);
+                    for (File file : files) {
+                        writeToSession(session, file);
+                    }
+                    Intent intent = new Intent(VersionUpdateService.this, VersionUpdateService.class)
+                            .setAction(ACTION_INSTALL_STATUS);
+                    PendingIntent pendingIntent = PendingIntent.getService(VersionUpdateService.this, sessionId,
+                            intent, PendingIntent.FLAG_UPDATE_CURRENT);
+                    session.commit(pendingIntent.getIntentSender());
+                } catch (IOException e) {
+                    LogUtil.d(TAG, "install splits failed: " + e.getMessage());
+                    UpdateMetrics.getInstance().failure(UpdateMetrics.Stage.INSTALL, UpdateMetrics.REASON_IO);
+                    if (session != null)
+                        session.abandon();
+                } finally {
+                    if (session != null)
+                        session.close();
+                }
+            }
+        });
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void writeToSession(PackageInstaller.Session session, File file) throws IOException {
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(file);
+            out = session.openWrite(file.getName(), 0, file.length());
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            session.fsync(out);
+        } finally {
+            DownloadJournal.closeQuietly(in);
+            DownloadJournal.closeQuietly(out);
+        }
+    }
+
+    /**
+     * PackageInstaller会话的结果,需要用户确认时打开系统安装界面
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void onInstallStatus(Intent intent) {
+        int status = intent.getIntExtra(PackageInstaller.EXTRA_STATUS, PackageInstaller.STATUS_FAILURE);
+        if (status == PackageInstaller.STATUS_PENDING_USER_ACTION) {
+            Intent confirm = intent.getParcelableExtra(Intent.EXTRA_INTENT);
+            if (confirm != null) {
+                confirm.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                startActivity(confirm);
+            }
+            UpdateMetrics.getInstance().end(UpdateMetrics.Stage.INSTALL);
+        } else if (status != PackageInstaller.STATUS_SUCCESS) {
+            LogUtil.d(TAG, "install splits status " + status + ": "
+                    + intent.getStringExtra(PackageInstaller.EXTRA_STATUS_MESSAGE));
+            UpdateMetrics.getInstance().failure(UpdateMetrics.Stage.INSTALL, UpdateMetrics.REASON_IO);
+        }
     }
 
     @Override
@@ -0,0 +1,55 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM上的简化实现,SharedPreferences保存在内存中,同名的实例共享数据
+ */
+public class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    private final Map<String, MemoryPreferences> preferences = new HashMap<>();
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        MemoryPreferences prefs = preferences.get(name);
+        if (prefs == null) {
+            prefs = new MemoryPreferences();
+            preferences.put(name, prefs);
+        }
+        return prefs;
+    }
+
+    private static class MemoryPreferences implements SharedPreferences {
+        private final Map<String, String> values = new HashMap<>();
+
+        @Override
+        public synchronized String getString(String key, String defValue) {
+            String value = values.get(key);
+            return value == null ? defValue : value;
+        }
+
+        @Override
+        public Editor edit() {
+            final Map<String, String> pending = new HashMap<>();
+            return new Editor() {
+                @Override
+                public Editor putString(String key, String value) {
+                    pending.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public void apply() {
+                    synchronized (MemoryPreferences.this) {
+                        values.putAll(pending);
+                    }
+                }
+            };
+        }
+    }
+}
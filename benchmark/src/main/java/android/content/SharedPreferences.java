@@ -0,0 +1,18 @@
+package android.content;
+
+/**
+ * JVM上的简化实现,只包含更新流程用到的字符串读写
+ */
+public interface SharedPreferences {
+
+    String getString(String key, String defValue);
+
+    Editor edit();
+
+    interface Editor {
+
+        Editor putString(String key, String value);
+
+        void apply();
+    }
+}
@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * JVM上的简化实现
+ * SDK_INT为0,依赖新系统调用的代码走兼容分支(如FileSink预分配时用setLength代替posix_fallocate)
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = 0;
+    }
+
+    public static class VERSION_CODES {
+        public static final int LOLLIPOP = 21;
+        public static final int N = 24;
+    }
+}
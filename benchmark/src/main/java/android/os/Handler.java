@@ -0,0 +1,36 @@
+package android.os;
+
+/**
+ * JVM上的简化实现
+ * post在调用线程中直接执行;postDelayed放入{@link Looper}的队列,到期后由{@link Looper#runDue()}执行
+ * 基准测试需要模拟主线程消息队列时,应直接传入自己的Executor,不经过Handler
+ */
+public class Handler {
+    private final Looper looper;
+
+    public Handler() {
+        this(Looper.myLooper());
+    }
+
+    public Handler(Looper looper) {
+        this.looper = looper;
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+
+    public final boolean post(Runnable r) {
+        r.run();
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        looper.enqueue(this, r, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        looper.remove(this, r);
+    }
+}
@@ -0,0 +1,88 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * JVM上的简化实现,没有消息循环线程,首先用到Looper的线程视为主线程
+ * {@link Handler#postDelayed}的消息存放在这里,由测试调用{@link #runDue()}执行已到期的消息
+ */
+public final class Looper {
+    private static final Looper MAIN = new Looper();
+
+    private final List<Message> queue = new ArrayList<>();
+    private final Thread thread = Thread.currentThread();
+
+    private Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static Looper myLooper() {
+        return MAIN;
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    /**
+     * 仅用于JVM测试:按到期时间先后执行所有已到期的消息,返回执行的条数
+     */
+    public int runDue() {
+        int count = 0;
+        Message next;
+        while ((next = pollDue()) != null) {
+            next.callback.run();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 仅用于JVM测试:丢弃所有未执行的消息
+     */
+    public synchronized void clear() {
+        queue.clear();
+    }
+
+    synchronized void enqueue(Handler target, Runnable callback, long when) {
+        queue.add(new Message(target, callback, when));
+    }
+
+    synchronized void remove(Handler target, Runnable callback) {
+        Iterator<Message> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Message message = iterator.next();
+            if (message.target == target && message.callback == callback)
+                iterator.remove();
+        }
+    }
+
+    private synchronized Message pollDue() {
+        long now = SystemClock.uptimeMillis();
+        Message due = null;
+        for (Message message : queue) {
+            if (message.when <= now && (due == null || message.when < due.when))
+                due = message;
+        }
+        if (due != null)
+            queue.remove(due);
+        return due;
+    }
+
+    private static class Message {
+        final Handler target;
+        final Runnable callback;
+        final long when;
+
+        Message(Handler target, Runnable callback, long when) {
+            this.target = target;
+            this.callback = callback;
+            this.when = when;
+        }
+    }
+}
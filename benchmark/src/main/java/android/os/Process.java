@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * JVM上的简化实现,线程优先级不做调整
+ */
+public final class Process {
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+    private Process() {
+    }
+
+    public static void setThreadPriority(int priority) {
+    }
+}
@@ -0,0 +1,43 @@
+package android.os;
+
+/**
+ * JVM上的简化实现,两个时钟都取自System.nanoTime
+ * 测试可以用{@link #freeze}固定时钟后用{@link #advance}手动推进
+ */
+public final class SystemClock {
+    private static volatile boolean frozen;
+    private static volatile long frozenMillis;
+
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return frozen ? frozenMillis : System.nanoTime() / 1000000L;
+    }
+
+    public static long elapsedRealtime() {
+        return uptimeMillis();
+    }
+
+    /**
+     * 仅用于JVM测试
+     */
+    public static void freeze(long millis) {
+        frozenMillis = millis;
+        frozen = true;
+    }
+
+    /**
+     * 仅用于JVM测试
+     */
+    public static void advance(long millis) {
+        frozenMillis += millis;
+    }
+
+    /**
+     * 仅用于JVM测试
+     */
+    public static void unfreeze() {
+        frozen = false;
+    }
+}
@@ -0,0 +1,17 @@
+package android.system;
+
+import java.io.FileDescriptor;
+
+/**
+ * JVM上的简化实现,系统调用一律按不支持处理
+ */
+public final class Os {
+    private static final int ENOSYS = 38;
+
+    private Os() {
+    }
+
+    public static void posix_fallocate(FileDescriptor fd, long offset, long len) throws ErrnoException {
+        throw new ErrnoException("posix_fallocate", ENOSYS);
+    }
+}
@@ -0,0 +1,17 @@
+package android.util;
+
+/**
+ * JVM上的简化实现,与android.util.JsonToken同名同序
+ */
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+}
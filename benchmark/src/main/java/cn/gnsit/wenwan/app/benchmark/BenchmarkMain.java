@@ -0,0 +1,36 @@
+package cn.gnsit.wenwan.app.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * benchmarks.jar的入口,接受JMH的全部命令行参数
+ * 默认把结果以JSON写到results/jmh-<benchmark.commit>.json,不同提交的结果可以直接对比;
+ * 命令行给出-rf/-rff时以命令行为准
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp() || cli.shouldList() || cli.shouldListWithParams() || cli.shouldListProfilers()
+                || cli.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(cli);
+        if (!cli.getResultFormat().hasValue())
+            builder.resultFormat(ResultFormatType.JSON);
+        if (!cli.getResult().hasValue()) {
+            File dir = new File("results");
+            dir.mkdirs();
+            String commit = System.getProperty("benchmark.commit", "local");
+            builder.result(new File(dir, "jmh-" + commit + ".json").getPath());
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,60 @@
+package cn.gnsit.wenwan.app.benchmark;
+
+import com.alibaba.fastjson.JSON;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import cn.gnsit.wenwan.app.model.VersionUpdateModel;
+import cn.gnsit.wenwan.app.service.CheckResult;
+import cn.gnsit.wenwan.app.service.VersionResponseReader;
+
+/**
+ * 检查响应的JSON解析:fastjson反射绑定对比{@link VersionResponseReader}的流式解析
+ * streaming跳过description,streamingWithDescription再补读一次说明,对应弹窗时的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CheckDecodeBenchmark {
+
+    @Param({"update", "noUpdate"})
+    public String payload;
+
+    private String response;
+
+    @Setup
+    public void setUp() {
+        response = "update".equals(payload) ? Payloads.checkResponse() : Payloads.noUpdateResponse();
+    }
+
+    @Benchmark
+    public VersionUpdateModel reflective() {
+        return JSON.parseObject(response, VersionUpdateModel.class);
+    }
+
+    @Benchmark
+    public CheckResult streaming() throws IOException {
+        return VersionResponseReader.read(response);
+    }
+
+    @Benchmark
+    public String streamingWithDescription() throws IOException {
+        return VersionResponseReader.read(response).getDescription();
+    }
+}
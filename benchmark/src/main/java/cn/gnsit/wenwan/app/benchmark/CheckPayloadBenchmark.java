@@ -0,0 +1,62 @@
+package cn.gnsit.wenwan.app.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import cn.gnsit.wenwan.app.service.CheckResult;
+import cn.gnsit.wenwan.app.service.CompactCheckCodec;
+import cn.gnsit.wenwan.app.service.VersionResponseReader;
+
+/**
+ * 检查响应的两种编码:JSON(含更新说明)对比{@link CompactCheckCodec}(只带说明地址)
+ * 耗时包括从响应字节解码出结果;两种响应体的大小(不含HTTP头和压缩)在每轮开始时输出到日志
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CheckPayloadBenchmark {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Param({"update", "noUpdate"})
+    public String payload;
+
+    private byte[] json;
+    private byte[] compact;
+
+    @Setup
+    public void setUp() throws IOException {
+        String response = "update".equals(payload) ? Payloads.checkResponse() : Payloads.noUpdateResponse();
+        json = response.getBytes(UTF_8);
+        CheckResult result = VersionResponseReader.read(response);
+        // 没有新版本时服务端不给说明地址
+        String notesUrl = result.getModel().isNeedUpgrade() ? "https://dl.wenwan.gnsit.cn/notes/1208.txt" : null;
+        compact = CompactCheckCodec.encode(result.getModel(), result.getExtras(), notesUrl);
+        System.out.println("payload " + payload + ": json " + json.length + " bytes, compact " + compact.length + " bytes");
+    }
+
+    @Benchmark
+    public CheckResult json() throws IOException {
+        return VersionResponseReader.read(new String(json, UTF_8));
+    }
+
+    @Benchmark
+    public CheckResult compact() throws IOException {
+        return CompactCheckCodec.decode(compact);
+    }
+}
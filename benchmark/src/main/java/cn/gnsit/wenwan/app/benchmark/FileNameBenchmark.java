@@ -0,0 +1,45 @@
+package cn.gnsit.wenwan.app.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import cn.gnsit.wenwan.app.utils.FileDigest;
+import cn.gnsit.wenwan.app.utils.StringUtil;
+
+/**
+ * 下载文件命名:StringUtil.string2MD5(StringBuffer逐字节拼接)对比按UTF-8取字节后用FileDigest.toHex查表
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileNameBenchmark {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String name = Payloads.UPGRADE_URL.substring(Payloads.UPGRADE_URL.lastIndexOf('/') + 1);
+
+    @Benchmark
+    public String string2MD5() {
+        return StringUtil.string2MD5(name);
+    }
+
+    @Benchmark
+    public String md5ToHex() throws NoSuchAlgorithmException {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        return FileDigest.toHex(md5.digest(name.getBytes(UTF_8)));
+    }
+}
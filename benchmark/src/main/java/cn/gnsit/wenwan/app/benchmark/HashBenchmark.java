@@ -0,0 +1,91 @@
+package cn.gnsit.wenwan.app.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import cn.gnsit.wenwan.app.service.FileSink;
+import cn.gnsit.wenwan.app.utils.FileDigest;
+
+/**
+ * SHA-256的开销:下载时边写边算(inline,每个缓冲区更新一次),对比下载完成后整文件重读再算
+ * (FileSink.digest用于分段下载和续传补算,FileDigest.sha256用于缓存校验)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark {
+    private static final int LENGTH = 16 * 1024 * 1024;
+
+    @Param({"8192", "65536"})
+    public int bufferSize;
+
+    private ByteBuffer data;
+    private File dir;
+    private File dest;
+    private FileSink sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] bytes = Payloads.randomBytes(LENGTH, 2);
+        data = ByteBuffer.allocateDirect(LENGTH);
+        data.put(bytes).flip();
+        dir = TempFiles.createDirectory("hash");
+        dest = new File(dir, "update.apk");
+        sink = new FileSink(dest, LENGTH);
+        sink.write(data.duplicate(), 0);
+        sink.close();
+        // digest需要打开的sink,commit前下载器就是这样读已写入的数据
+        sink = new FileSink(dest, LENGTH);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sink.discard();
+        TempFiles.delete(dir);
+    }
+
+    @Benchmark
+    public byte[] inline() {
+        MessageDigest digest = FileDigest.newSha256();
+        ByteBuffer source = data.duplicate();
+        while (source.hasRemaining()) {
+            ByteBuffer chunk = source.slice();
+            chunk.limit(Math.min(bufferSize, chunk.remaining()));
+            source.position(source.position() + chunk.remaining());
+            digest.update(chunk);
+        }
+        return digest.digest();
+    }
+
+    @Benchmark
+    public byte[] rereadPart() throws IOException {
+        MessageDigest digest = FileDigest.newSha256();
+        sink.digest(digest, LENGTH, FileSink.allocateBuffer(bufferSize));
+        return digest.digest();
+    }
+
+    @Benchmark
+    public String rereadFile() throws IOException {
+        return FileDigest.sha256(FileSink.partFileOf(dest));
+    }
+}
@@ -0,0 +1,61 @@
+package cn.gnsit.wenwan.app.benchmark;
+
+import java.util.Random;
+
+/**
+ * 基准测试共用的输入数据
+ */
+final class Payloads {
+    static final String UPGRADE_URL = "https://dl.wenwan.gnsit.cn/apk/wenwan-release-3.8.0-1208.apk";
+
+    private Payloads() {
+    }
+
+    /**
+     * 与线上检查接口同样结构的响应,带多语言更新说明和增量包、镜像字段
+     */
+    static String checkResponse() {
+        StringBuilder notes = new StringBuilder();
+        for (int i = 1; i <= 12; i++) {
+            notes.append(i).append(". 优化了藏品详情页的加载速度,修复了部分机型上图片显示不全的问题;")
+                    .append("Improved item detail loading and fixed clipped images on some devices.\\n");
+        }
+        return "{"
+                + "\"build\":1208,"
+                + "\"version\":\"3.8.0\","
+                + "\"needUpgrade\":true,"
+                + "\"mustUpgrade\":false,"
+                + "\"upgradeUrl\":\"" + UPGRADE_URL + "\","
+                + "\"description\":\"" + notes + "\","
+                + "\"patchUrl\":\"https://dl.wenwan.gnsit.cn/patch/1207-1208.patch\","
+                + "\"patchBaseHash\":\"" + hex(32, 1) + "\","
+                + "\"targetHash\":\"" + hex(32, 2) + "\","
+                + "\"rolloutPercent\":50,"
+                + "\"mirrors\":[\"https://cdn1.wenwan.gnsit.cn/apk/wenwan-release-3.8.0-1208.apk\","
+                + "\"https://cdn2.wenwan.gnsit.cn/apk/wenwan-release-3.8.0-1208.apk\"],"
+                + "\"publishTime\":\"2026-10-12 10:00:00\""
+                + "}";
+    }
+
+    /**
+     * 没有新版本时的响应
+     */
+    static String noUpdateResponse() {
+        return "{\"build\":1208,\"version\":\"3.8.0\",\"needUpgrade\":false,\"mustUpgrade\":false,"
+                + "\"upgradeUrl\":\"\",\"description\":\"\"}";
+    }
+
+    static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    static String hex(int bytes, long seed) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : randomBytes(bytes, seed)) {
+            builder.append(String.format("%02x", b & 0xff));
+        }
+        return builder.toString();
+    }
+}
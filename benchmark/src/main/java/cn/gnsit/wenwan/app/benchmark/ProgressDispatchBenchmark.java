@@ -0,0 +1,104 @@
+package cn.gnsit.wenwan.app.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import cn.gnsit.wenwan.app.service.ProgressDispatcher;
+import cn.gnsit.wenwan.app.service.VersionUpdateService;
+
+/**
+ * 进度回调分发:一次64MB下载按8KB读取共8192次上报
+ * perChunk对应改造前每读一次就post一次回调,dispatcher经{@link ProgressDispatcher}合并;
+ * 回调先进入队列,上报结束后统一执行,模拟主线程消息队列,队列长度即主线程要处理的消息数
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProgressDispatchBenchmark {
+    private static final long TOTAL = 64L * 1024 * 1024;
+    private static final int CHUNK = 8192;
+
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    private final Executor mainThread = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+    };
+
+    @Benchmark
+    public int perChunk(Blackhole blackhole) {
+        final VersionUpdateService.DownLoadListener listener = new Listener(blackhole);
+        for (long received = CHUNK; received <= TOTAL; received += CHUNK) {
+            final float progress = (float) received / TOTAL;
+            mainThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.inProgress(progress, TOTAL);
+                }
+            });
+        }
+        return drain();
+    }
+
+    @Benchmark
+    public int dispatcher(Blackhole blackhole) {
+        ProgressDispatcher dispatcher = new ProgressDispatcher(mainThread, new Listener(blackhole));
+        for (long received = CHUNK; received <= TOTAL; received += CHUNK) {
+            dispatcher.progress(received, TOTAL);
+        }
+        dispatcher.success(null);
+        return drain();
+    }
+
+    private int drain() {
+        int count = queue.size();
+        Runnable command;
+        while ((command = queue.poll()) != null) {
+            command.run();
+        }
+        return count;
+    }
+
+    private static class Listener implements VersionUpdateService.DownLoadListener {
+        private final Blackhole blackhole;
+
+        Listener(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void begain() {
+        }
+
+        @Override
+        public void inProgress(float progress, long total) {
+            blackhole.consume(progress);
+        }
+
+        @Override
+        public void downLoadLatestSuccess(File file) {
+            blackhole.consume(file);
+        }
+
+        @Override
+        public void downLoadLatestFailed() {
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package cn.gnsit.wenwan.app.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+final class TempFiles {
+
+    private TempFiles() {
+    }
+
+    static File createDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory("updater-" + prefix).toFile();
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,101 @@
+package cn.gnsit.wenwan.app.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import cn.gnsit.wenwan.app.service.FileSink;
+
+/**
+ * 下载写入循环:{@link FileSink}的直接缓冲区加FileChannel定位写,对比改造前的byte[]加FileOutputStream
+ * 数据源在内存中,按8KB一片交付(与okio的Segment大小一致),只测本地拷贝和写文件的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteLoopBenchmark {
+    private static final int LENGTH = 16 * 1024 * 1024;
+
+    @Param({"8192", "65536", "262144"})
+    public int bufferSize;
+
+    private byte[] data;
+    private File dir;
+    private File dest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = Payloads.randomBytes(LENGTH, 1);
+        dir = TempFiles.createDirectory("write-loop");
+        dest = new File(dir, "update.apk");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        TempFiles.delete(dir);
+    }
+
+    @Benchmark
+    public long channel() throws IOException {
+        ReadableByteChannel source = Channels.newChannel(new ByteArrayInputStream(data));
+        FileSink sink = new FileSink(dest, LENGTH);
+        try {
+            ByteBuffer buffer = FileSink.allocateBuffer(bufferSize);
+            long position = 0;
+            int read;
+            while (true) {
+                buffer.clear();
+                if ((read = FileSink.fill(source, buffer)) == -1)
+                    break;
+                sink.write(buffer, position);
+                position += read;
+            }
+            return position;
+        } finally {
+            sink.discard();
+        }
+    }
+
+    @Benchmark
+    public long stream() throws IOException {
+        InputStream source = new ByteArrayInputStream(data);
+        OutputStream out = new FileOutputStream(dest);
+        try {
+            byte[] buffer = new byte[bufferSize];
+            long position = 0;
+            int read;
+            while ((read = source.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                position += read;
+            }
+            return position;
+        } finally {
+            out.close();
+            dest.delete();
+        }
+    }
+}
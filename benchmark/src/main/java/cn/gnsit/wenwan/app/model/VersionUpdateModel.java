@@ -0,0 +1,53 @@
+package cn.gnsit.wenwan.app.model;
+
+/**
+ * 应用VersionUpdateModel的简化实现,只保留更新流程读写的字段
+ * 保持JavaBean形式,fastjson的反射绑定可以直接使用
+ */
+public class VersionUpdateModel {
+    private int build;
+    private boolean needUpgrade;
+    private boolean mustUpgrade;
+    private String upgradeUrl;
+    private String description;
+
+    public int getBuild() {
+        return build;
+    }
+
+    public void setBuild(int build) {
+        this.build = build;
+    }
+
+    public boolean isNeedUpgrade() {
+        return needUpgrade;
+    }
+
+    public void setNeedUpgrade(boolean needUpgrade) {
+        this.needUpgrade = needUpgrade;
+    }
+
+    public boolean isMustUpgrade() {
+        return mustUpgrade;
+    }
+
+    public void setMustUpgrade(boolean mustUpgrade) {
+        this.mustUpgrade = mustUpgrade;
+    }
+
+    public String getUpgradeUrl() {
+        return upgradeUrl;
+    }
+
+    public void setUpgradeUrl(String upgradeUrl) {
+        this.upgradeUrl = upgradeUrl;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+}
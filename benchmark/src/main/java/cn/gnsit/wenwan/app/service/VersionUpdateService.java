@@ -0,0 +1,19 @@
+package cn.gnsit.wenwan.app.service;
+
+import java.io.File;
+
+/**
+ * 只保留{@link ProgressDispatcher}用到的回调接口,与应用中的定义一致
+ */
+public class VersionUpdateService {
+
+    public interface DownLoadListener {
+        void begain();
+
+        void inProgress(float progress, long total);
+
+        void downLoadLatestSuccess(File file);
+
+        void downLoadLatestFailed();
+    }
+}
@@ -0,0 +1,13 @@
+package cn.gnsit.wenwan.app.utils;
+
+/**
+ * 应用LogUtil的简化实现,基准测试中不输出日志
+ */
+public class LogUtil {
+
+    private LogUtil() {
+    }
+
+    public static void d(String tag, String msg) {
+    }
+}
@@ -0,0 +1,36 @@
+package cn.gnsit.wenwan.app.utils;
+
+import java.security.MessageDigest;
+
+/**
+ * 应用StringUtil中string2MD5的副本,按字符截成字节后取MD5,用StringBuffer逐字节拼十六进制
+ * 应用侧实现改动时这里需要同步
+ */
+public class StringUtil {
+
+    private StringUtil() {
+    }
+
+    public static String string2MD5(String inStr) {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (Exception e) {
+            return "";
+        }
+        char[] charArray = inStr.toCharArray();
+        byte[] byteArray = new byte[charArray.length];
+        for (int i = 0; i < charArray.length; i++) {
+            byteArray[i] = (byte) charArray[i];
+        }
+        byte[] md5Bytes = md5.digest(byteArray);
+        StringBuffer hexValue = new StringBuffer();
+        for (int i = 0; i < md5Bytes.length; i++) {
+            int val = ((int) md5Bytes[i]) & 0xff;
+            if (val < 16)
+                hexValue.append("0");
+            hexValue.append(Integer.toHexString(val));
+        }
+        return hexValue.toString();
+    }
+}
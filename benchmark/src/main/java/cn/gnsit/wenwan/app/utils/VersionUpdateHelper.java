@@ -0,0 +1,11 @@
+package cn.gnsit.wenwan.app.utils;
+
+/**
+ * 只保留{@link VersionUpdateCoordinator}用到的回调接口,与应用中的定义一致
+ */
+public class VersionUpdateHelper {
+
+    public interface CheckCallBack {
+        void callBack(int code);
+    }
+}
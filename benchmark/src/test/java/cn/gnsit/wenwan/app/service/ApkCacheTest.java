@@ -0,0 +1,92 @@
+package cn.gnsit.wenwan.app.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ApkCacheTest {
+    private File dir;
+    private ApkCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("apkcache").toFile();
+        cache = ApkCache.getInstance(dir);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void overBudgetKeepsEveryArtifactOfTheBuildInProgress() throws IOException {
+        cache.setMaxBytes(1000);
+        File base = write("base.apk", 800);
+        File patch = write("update.patch", 400);
+
+        cache.put(base, 10, "a");
+        cache.put(patch, 10, "b");
+
+        assertTrue(base.exists());
+        assertTrue(patch.exists());
+        assertNotNull(cache.get("base.apk", 10, null));
+        assertEquals(1200, cache.getTotalBytes());
+    }
+
+    @Test
+    public void newerBuildSupersedesTheOldOne() throws IOException {
+        File old = write("old.apk", 100);
+        File fresh = write("new.apk", 100);
+
+        cache.put(old, 10, "a");
+        cache.put(fresh, 11, "b");
+
+        assertFalse(old.exists());
+        assertNull(cache.get("old.apk", 10, null));
+        assertNotNull(cache.get("new.apk", 11, null));
+    }
+
+    @Test
+    public void shrinkingTheBudgetEvictsOtherBuildsOnly() throws IOException {
+        File newest = write("newest.apk", 300);
+        File other = write("other.apk", 300);
+        cache.put(newest, 12, "a");
+        cache.put(other, 11, "b");
+        cache.get("newest.apk", 12, null);
+
+        cache.setMaxBytes(100);
+
+        assertFalse(other.exists());
+        assertTrue(newest.exists());
+        assertEquals(300, cache.getTotalBytes());
+    }
+
+    private File write(String name, int size) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
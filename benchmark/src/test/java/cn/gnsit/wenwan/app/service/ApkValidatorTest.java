@@ -0,0 +1,169 @@
+package cn.gnsit.wenwan.app.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ApkValidatorTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // zipalign在本地头的extra中补齐,中央目录中不补
+    private static final int ALIGN_PADDING = 3;
+
+    private File dir;
+    private File apk;
+    private byte[] library;
+    private byte[] table;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("validator").toFile();
+        apk = new File(dir, "update.apk");
+        Random random = new Random(7);
+        library = new byte[5000];
+        random.nextBytes(library);
+        table = new byte[1200];
+        random.nextBytes(table);
+    }
+
+    @After
+    public void tearDown() {
+        apk.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void alignedStoredEntriesAreValid() throws IOException {
+        writeAlignedZip();
+
+        assertTrue(ApkValidator.validate(apk).isValid());
+    }
+
+    @Test
+    public void badRangeCoversTheWholeAlignedEntry() throws IOException {
+        long libraryEnd = writeAlignedZip();
+        corrupt(libraryEnd - 1);
+
+        ApkValidator.Result result = ApkValidator.validate(apk);
+
+        assertTrue(result.isStructureValid());
+        assertFalse(result.isValid());
+        assertEquals(1, result.getBadRanges().size());
+        assertEquals(0, result.getBadRanges().get(0).getStart());
+        assertEquals(libraryEnd, result.getBadRanges().get(0).getEnd());
+    }
+
+    @Test
+    public void unreadableLocalHeaderFallsBackToEstimate() throws IOException {
+        writeAlignedZip();
+        corrupt(0);
+
+        ApkValidator.Result result = ApkValidator.validate(apk);
+
+        assertEquals(1, result.getBadRanges().size());
+        assertEquals(0, result.getBadRanges().get(0).getStart());
+        assertEquals(30 + "lib/arm64-v8a/libapp.so".length() + library.length,
+                result.getBadRanges().get(0).getEnd());
+    }
+
+    /**
+     * @return 第一个条目数据的结尾
+     */
+    private long writeAlignedZip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream central = new ByteArrayOutputStream();
+        addStored(out, central, "lib/arm64-v8a/libapp.so", library);
+        long libraryEnd = out.size();
+        addStored(out, central, "resources.arsc", table);
+        int directoryOffset = out.size();
+        central.writeTo(out);
+        writeInt(out, 0x06054b50);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 2);
+        writeShort(out, 2);
+        writeInt(out, central.size());
+        writeInt(out, directoryOffset);
+        writeShort(out, 0);
+        FileOutputStream file = new FileOutputStream(apk);
+        try {
+            out.writeTo(file);
+        } finally {
+            file.close();
+        }
+        return libraryEnd;
+    }
+
+    private static void addStored(ByteArrayOutputStream out, ByteArrayOutputStream central, String name, byte[] data) {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        int offset = out.size();
+        writeInt(out, 0x04034b50);
+        writeShort(out, 10);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeInt(out, 0);
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, data.length);
+        writeInt(out, data.length);
+        writeShort(out, nameBytes.length);
+        writeShort(out, ALIGN_PADDING);
+        out.write(nameBytes, 0, nameBytes.length);
+        out.write(new byte[ALIGN_PADDING], 0, ALIGN_PADDING);
+        out.write(data, 0, data.length);
+
+        writeInt(central, 0x02014b50);
+        writeShort(central, 10);
+        writeShort(central, 10);
+        writeShort(central, 0);
+        writeShort(central, 0);
+        writeInt(central, 0);
+        writeInt(central, (int) crc.getValue());
+        writeInt(central, data.length);
+        writeInt(central, data.length);
+        writeShort(central, nameBytes.length);
+        writeShort(central, 0);
+        writeShort(central, 0);
+        writeShort(central, 0);
+        writeShort(central, 0);
+        writeInt(central, 0);
+        writeInt(central, offset);
+        central.write(nameBytes, 0, nameBytes.length);
+    }
+
+    private void corrupt(long position) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(apk, "rw");
+        try {
+            file.seek(position);
+            int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0xff);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value & 0xffff);
+        writeShort(out, (value >>> 16) & 0xffff);
+    }
+}
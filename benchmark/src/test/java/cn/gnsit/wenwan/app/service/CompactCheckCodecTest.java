@@ -0,0 +1,231 @@
+package cn.gnsit.wenwan.app.service;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import cn.gnsit.wenwan.app.model.VersionUpdateModel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompactCheckCodecTest {
+    private static final String BASE_HASH = "00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff";
+    private static final String TARGET_HASH = "ffeeddccbbaa99887766554433221100ffeeddccbbaa99887766554433221100";
+
+    @Test
+    public void roundTripAllFields() throws IOException {
+        VersionUpdateModel model = model(1208, true, true, "https://dl.example.com/app-1208.apk");
+        UpgradeExtras extras = new UpgradeExtras();
+        extras.setPatchUrl("https://dl.example.com/1207-1208.patch");
+        extras.setPatchBaseHash(BASE_HASH);
+        extras.setTargetHash(TARGET_HASH);
+        extras.setRetryAfter(3600);
+        extras.setRolloutPercent(25);
+        extras.setRolloutStart(1760000000000L);
+        extras.setRolloutEnd(1760600000000L);
+        extras.setMirrors(Arrays.asList("https://m1.example.com/app-1208.apk", "https://m2.example.com/app-1208.apk"));
+
+        CheckResult result = CompactCheckCodec.decode(CompactCheckCodec.encode(model, extras, "https://dl.example.com/notes/1208.txt"));
+
+        VersionUpdateModel decoded = result.getModel();
+        assertEquals(1208, decoded.getBuild());
+        assertTrue(decoded.isNeedUpgrade());
+        assertTrue(decoded.isMustUpgrade());
+        assertEquals("https://dl.example.com/app-1208.apk", decoded.getUpgradeUrl());
+        UpgradeExtras decodedExtras = result.getExtras();
+        assertEquals("https://dl.example.com/1207-1208.patch", decodedExtras.getPatchUrl());
+        assertEquals(BASE_HASH, decodedExtras.getPatchBaseHash());
+        assertEquals(TARGET_HASH, decodedExtras.getTargetHash());
+        assertEquals(3600, decodedExtras.getRetryAfter());
+        assertEquals(25, decodedExtras.getRolloutPercent());
+        assertEquals(1760000000000L, decodedExtras.getRolloutStart());
+        assertEquals(1760600000000L, decodedExtras.getRolloutEnd());
+        assertEquals(extras.getMirrors(), decodedExtras.getMirrors());
+        assertEquals("https://dl.example.com/notes/1208.txt", result.getNotesUrl());
+    }
+
+    @Test
+    public void roundTripWithoutExtras() throws IOException {
+        VersionUpdateModel model = model(7, false, false, null);
+
+        CheckResult result = CompactCheckCodec.decode(CompactCheckCodec.encode(model, null, null));
+
+        assertEquals(7, result.getModel().getBuild());
+        assertFalse(result.getModel().isNeedUpgrade());
+        assertFalse(result.getModel().isMustUpgrade());
+        assertNull(result.getModel().getUpgradeUrl());
+        assertNull(result.getExtras().getPatchBaseHash());
+        assertEquals(100, result.getExtras().getRolloutPercent());
+        assertTrue(result.getExtras().getMirrors().isEmpty());
+        assertNull(result.getNotesUrl());
+    }
+
+    @Test
+    public void hexHashesAreNormalizedToLowerCase() throws IOException {
+        UpgradeExtras extras = new UpgradeExtras();
+        extras.setTargetHash(TARGET_HASH.toUpperCase());
+
+        CheckResult result = CompactCheckCodec.decode(CompactCheckCodec.encode(model(1, true, false, "u"), extras, null));
+
+        assertEquals(TARGET_HASH, result.getExtras().getTargetHash());
+    }
+
+    @Test
+    public void descriptionIsNotFetchedByGetter() throws IOException {
+        CheckResult result = CompactCheckCodec.decode(
+                CompactCheckCodec.encode(model(1, true, false, "u"), null, "http://127.0.0.1:9/notes"));
+
+        assertNull(result.getDescription());
+        assertFalse(result.isDescriptionLoaded());
+    }
+
+    @Test
+    public void unknownFieldsAreSkipped() throws IOException {
+        ByteArrayOutputStream out = header();
+        varintField(out, 1, 42);
+        varintField(out, 30, 123456789L);
+        bytesField(out, 31, new byte[]{1, 2, 3, 4, 5});
+        bytesField(out, 3, "https://dl.example.com/a.apk".getBytes("UTF-8"));
+
+        CheckResult result = CompactCheckCodec.decode(out.toByteArray());
+
+        assertEquals(42, result.getModel().getBuild());
+        assertEquals("https://dl.example.com/a.apk", result.getModel().getUpgradeUrl());
+    }
+
+    @Test
+    public void rejectsVarintSentAsBytes() {
+        ByteArrayOutputStream out = header();
+        bytesField(out, 1, new byte[]{42});
+
+        assertRejected(out.toByteArray());
+    }
+
+    @Test
+    public void rejectsBytesSentAsVarint() {
+        ByteArrayOutputStream out = header();
+        varintField(out, 3, 1);
+
+        assertRejected(out.toByteArray());
+    }
+
+    @Test
+    public void rejectsHashSentAsVarint() {
+        ByteArrayOutputStream out = header();
+        varintField(out, 6, 1);
+
+        assertRejected(out.toByteArray());
+    }
+
+    @Test
+    public void rejectsShortHash() {
+        ByteArrayOutputStream out = header();
+        bytesField(out, 5, new byte[31]);
+
+        assertRejected(out.toByteArray());
+    }
+
+    @Test
+    public void rejectsLongHash() {
+        ByteArrayOutputStream out = header();
+        bytesField(out, 6, new byte[33]);
+
+        assertRejected(out.toByteArray());
+    }
+
+    @Test
+    public void acceptsExactHashLength() throws IOException {
+        ByteArrayOutputStream out = header();
+        byte[] hash = new byte[32];
+        Arrays.fill(hash, (byte) 0xab);
+        bytesField(out, 6, hash);
+
+        CheckResult result = CompactCheckCodec.decode(out.toByteArray());
+
+        assertArrayEquals(hash, CompactCheckCodec.fromHex(result.getExtras().getTargetHash()));
+    }
+
+    @Test
+    public void rejectsUnparsableNotesUrl() throws IOException {
+        ByteArrayOutputStream out = header();
+        bytesField(out, 12, "notes/1208.txt".getBytes("UTF-8"));
+
+        assertRejected(out.toByteArray());
+    }
+
+    @Test
+    public void rejectsBadHeader() {
+        assertRejected(new byte[]{'W'});
+        assertRejected(new byte[]{'X', 'V', 1});
+        assertRejected(new byte[]{'W', 'V', 2});
+    }
+
+    @Test
+    public void rejectsTruncatedInput() {
+        ByteArrayOutputStream out = header();
+        bytesField(out, 3, "https://dl.example.com/a.apk".getBytes());
+        byte[] data = out.toByteArray();
+
+        assertRejected(Arrays.copyOf(data, data.length - 1));
+        assertRejected(new byte[]{'W', 'V', 1, (byte) 0x88});
+    }
+
+    @Test
+    public void rejectsUnknownWireType() {
+        ByteArrayOutputStream out = header();
+        CompactCheckCodec.writeVarint(out, (1 << 3) | 5);
+
+        assertRejected(out.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encodeRejectsNonSha256Hash() {
+        UpgradeExtras extras = new UpgradeExtras();
+        extras.setTargetHash("abcd");
+
+        CompactCheckCodec.encode(model(1, true, false, "u"), extras, null);
+    }
+
+    private static VersionUpdateModel model(int build, boolean needUpgrade, boolean mustUpgrade, String upgradeUrl) {
+        VersionUpdateModel model = new VersionUpdateModel();
+        model.setBuild(build);
+        model.setNeedUpgrade(needUpgrade);
+        model.setMustUpgrade(mustUpgrade);
+        model.setUpgradeUrl(upgradeUrl);
+        return model;
+    }
+
+    private static ByteArrayOutputStream header() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('W');
+        out.write('V');
+        out.write(1);
+        return out;
+    }
+
+    private static void varintField(ByteArrayOutputStream out, int field, long value) {
+        CompactCheckCodec.writeVarint(out, (long) field << 3);
+        CompactCheckCodec.writeVarint(out, value);
+    }
+
+    private static void bytesField(ByteArrayOutputStream out, int field, byte[] value) {
+        CompactCheckCodec.writeVarint(out, ((long) field << 3) | 2);
+        CompactCheckCodec.writeVarint(out, value.length);
+        out.write(value, 0, value.length);
+    }
+
+    private static void assertRejected(byte[] data) {
+        try {
+            CompactCheckCodec.decode(data);
+            fail("decoded malformed input");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadNotificationPublisherTest {
+    private static final long INTERVAL = DownloadNotificationPublisher.DEFAULT_MIN_INTERVAL;
+
+    private final List<Integer> posted = new ArrayList<>();
+    private int cancels;
+    private DownloadNotificationPublisher publisher;
+
+    @Before
+    public void setUp() {
+        SystemClock.freeze(10000);
+        Looper.getMainLooper().clear();
+        publisher = new DownloadNotificationPublisher(new DownloadNotificationPublisher.Sink() {
+            @Override
+            public void post(int percent) {
+                posted.add(percent);
+            }
+
+            @Override
+            public void cancel() {
+                cancels++;
+            }
+        }, new Handler(Looper.getMainLooper()), INTERVAL);
+    }
+
+    @After
+    public void tearDown() {
+        Looper.getMainLooper().clear();
+        SystemClock.unfreeze();
+    }
+
+    @Test
+    public void firstProgressIsPostedImmediately() {
+        publisher.onProgress(1);
+
+        assertEquals(Arrays.asList(1), posted);
+    }
+
+    @Test
+    public void updatesWithinTheIntervalCoalesceToTheNewest() {
+        publisher.onProgress(1);
+        SystemClock.advance(100);
+        publisher.onProgress(2);
+        publisher.onProgress(3);
+        publisher.onProgress(4);
+        Looper.getMainLooper().runDue();
+
+        assertEquals(Arrays.asList(1), posted);
+        SystemClock.advance(INTERVAL - 100);
+        Looper.getMainLooper().runDue();
+        assertEquals(Arrays.asList(1, 4), posted);
+    }
+
+    @Test
+    public void unchangedPercentIsIgnored() {
+        publisher.onProgress(5);
+        SystemClock.advance(INTERVAL);
+        publisher.onProgress(5);
+        Looper.getMainLooper().runDue();
+
+        assertEquals(Arrays.asList(5), posted);
+    }
+
+    @Test
+    public void updateAfterTheIntervalIsPostedImmediately() {
+        publisher.onProgress(1);
+        SystemClock.advance(INTERVAL);
+        publisher.onProgress(2);
+
+        assertEquals(Arrays.asList(1, 2), posted);
+    }
+
+    @Test
+    public void completionSkipsTheInterval() {
+        publisher.onProgress(99);
+        SystemClock.advance(10);
+        publisher.onProgress(100);
+
+        assertEquals(Arrays.asList(99, 100), posted);
+    }
+
+    @Test
+    public void progressFromAWorkerThreadIsPublished() throws InterruptedException {
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                publisher.onProgress(7);
+            }
+        });
+        worker.start();
+        worker.join();
+
+        assertEquals(Arrays.asList(7), posted);
+    }
+
+    @Test
+    public void shutdownDropsPendingAndLaterUpdates() {
+        publisher.onProgress(1);
+        SystemClock.advance(100);
+        publisher.onProgress(2);
+        publisher.shutdown();
+        publisher.shutdown();
+        publisher.onProgress(3);
+        SystemClock.advance(INTERVAL);
+        Looper.getMainLooper().runDue();
+
+        assertTrue(publisher.isClosed());
+        assertEquals(Arrays.asList(1), posted);
+        assertEquals(1, cancels);
+    }
+}
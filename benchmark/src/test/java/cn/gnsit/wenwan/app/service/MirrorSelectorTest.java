@@ -0,0 +1,90 @@
+package cn.gnsit.wenwan.app.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertEquals;
+
+public class MirrorSelectorTest {
+    private final OkHttpClient client = new OkHttpClient();
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void singleMirrorIsNotProbed() {
+        List<String> urls = Collections.singletonList("http://127.0.0.1:1/update.apk");
+        assertEquals(urls, MirrorSelector.rank(client, urls));
+    }
+
+    @Test
+    public void fasterMirrorsComeFirst() throws IOException {
+        String slow = mirror(206, 400);
+        String fast = mirror(206, 0);
+        String medium = mirror(206, 150);
+
+        assertEquals(Arrays.asList(fast, medium, slow), MirrorSelector.rank(client, Arrays.asList(slow, fast, medium)));
+    }
+
+    @Test
+    public void failedMirrorsGoLastInTheirOriginalOrder() throws IOException {
+        String broken = mirror(503, 0);
+        String unreachable = "http://127.0.0.1:" + closedPort() + "/update.apk";
+        String slow = mirror(206, 200);
+        String missing = mirror(404, 0);
+        String fast = mirror(200, 0);
+
+        assertEquals(Arrays.asList(fast, slow, broken, unreachable, missing),
+                MirrorSelector.rank(client, Arrays.asList(broken, unreachable, slow, missing, fast)));
+    }
+
+    /**
+     * 启动一个本地镜像,等待delayMillis后以status响应一个字节
+     */
+    private String mirror(final int status, final long delayMillis) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ignored) {
+                }
+                exchange.sendResponseHeaders(status, 1);
+                OutputStream body = exchange.getResponseBody();
+                body.write(0);
+                body.close();
+            }
+        });
+        server.start();
+        servers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/update.apk";
+    }
+
+    private static int closedPort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+}
@@ -0,0 +1,160 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProgressDispatcherTest {
+    private static final long TOTAL = 1000;
+
+    private final ArrayDeque<Runnable> mainQueue = new ArrayDeque<>();
+    private final Executor mainThread = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mainQueue.add(command);
+        }
+    };
+    private final List<String> events = new ArrayList<>();
+    private ProgressDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        SystemClock.freeze(10000);
+        Looper.getMainLooper().clear();
+        dispatcher = new ProgressDispatcher(mainThread, new VersionUpdateService.DownLoadListener() {
+            @Override
+            public void begain() {
+                events.add("begin");
+            }
+
+            @Override
+            public void inProgress(float progress, long total) {
+                events.add(String.valueOf(Math.round(progress * 100)));
+            }
+
+            @Override
+            public void downLoadLatestSuccess(File file) {
+                events.add("success");
+            }
+
+            @Override
+            public void downLoadLatestFailed() {
+                events.add("failed");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Looper.getMainLooper().clear();
+        SystemClock.unfreeze();
+    }
+
+    @Test
+    public void coalescesUpdatesWithinAFrame() {
+        dispatcher.progress(10, TOTAL);
+        dispatcher.progress(20, TOTAL);
+        dispatcher.progress(30, TOTAL);
+        drain();
+
+        assertEquals(Arrays.asList("1"), events);
+    }
+
+    @Test
+    public void samePercentIsDroppedAfterAFrame() {
+        dispatcher.progress(10, TOTAL);
+        SystemClock.advance(ProgressDispatcher.FRAME_INTERVAL);
+        dispatcher.progress(15, TOTAL);
+        drain();
+
+        assertEquals(Arrays.asList("1"), events);
+    }
+
+    @Test
+    public void flushesTheNewestDroppedValueAtTheEndOfTheFrame() {
+        dispatcher.progress(10, TOTAL);
+        SystemClock.advance(5);
+        dispatcher.progress(20, TOTAL);
+        dispatcher.progress(30, TOTAL);
+        drain();
+        assertEquals(Arrays.asList("1"), events);
+
+        SystemClock.advance(ProgressDispatcher.FRAME_INTERVAL - 6);
+        assertEquals(0, Looper.getMainLooper().runDue());
+        SystemClock.advance(1);
+        assertEquals(1, Looper.getMainLooper().runDue());
+        drain();
+
+        assertEquals(Arrays.asList("1", "3"), events);
+    }
+
+    @Test
+    public void trailingFlushDoesNotRewindANewerSubmit() {
+        dispatcher.progress(10, TOTAL);
+        drain();
+        dispatcher.progress(20, TOTAL);
+        SystemClock.advance(ProgressDispatcher.FRAME_INTERVAL);
+        dispatcher.progress(40, TOTAL);
+        Looper.getMainLooper().runDue();
+        drain();
+
+        assertEquals(Arrays.asList("1", "4"), events);
+    }
+
+    @Test
+    public void completionIsNeverDropped() {
+        dispatcher.progress(10, TOTAL);
+        dispatcher.progress(TOTAL, TOTAL);
+        dispatcher.success(null);
+        drain();
+
+        assertEquals(Arrays.asList("100", "success"), events);
+    }
+
+    @Test
+    public void successCancelsTheTrailingFlush() {
+        dispatcher.progress(10, TOTAL);
+        dispatcher.progress(20, TOTAL);
+        dispatcher.success(null);
+        SystemClock.advance(ProgressDispatcher.FRAME_INTERVAL);
+        assertEquals(0, Looper.getMainLooper().runDue());
+        dispatcher.progress(50, TOTAL);
+        drain();
+
+        assertEquals(Arrays.asList("1", "success"), events);
+    }
+
+    @Test
+    public void nothingIsDeliveredAfterFailure() {
+        dispatcher.progress(10, TOTAL);
+        dispatcher.failed();
+        dispatcher.failed();
+        SystemClock.advance(ProgressDispatcher.FRAME_INTERVAL);
+        dispatcher.progress(500, TOTAL);
+        dispatcher.success(null);
+        drain();
+
+        assertTrue(events.size() <= 2);
+        assertEquals("failed", events.get(events.size() - 1));
+    }
+
+    private void drain() {
+        Runnable command;
+        while ((command = mainQueue.poll()) != null) {
+            command.run();
+        }
+    }
+}
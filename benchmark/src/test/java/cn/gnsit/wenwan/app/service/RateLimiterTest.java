@@ -0,0 +1,103 @@
+package cn.gnsit.wenwan.app.service;
+
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+    private static final int CHUNK = 8 * 1024;
+    private static final long RATE = 400 * 1024;
+    // 令牌从0开始,RATE速率下约0.5秒
+    private static final int TOTAL = 200 * 1024;
+
+    @Test
+    public void unlimitedNeverBlocks() throws InterruptedIOException {
+        RateLimiter limiter = new RateLimiter(RateLimiter.UNLIMITED);
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            limiter.acquire(CHUNK);
+        }
+        assertTrue(elapsedMillis(start) < 200);
+    }
+
+    @Test
+    public void singleThreadStaysUnderTheRate() throws InterruptedIOException {
+        RateLimiter limiter = new RateLimiter(RATE);
+        long start = System.nanoTime();
+        for (int sent = 0; sent < TOTAL; sent += CHUNK) {
+            limiter.acquire(CHUNK);
+        }
+        assertWithinWindow(start, TOTAL);
+    }
+
+    @Test
+    public void sharedLimiterCapsTheCombinedRate() throws InterruptedException {
+        final RateLimiter limiter = new RateLimiter(RATE);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int sent = 0; sent < TOTAL / 4; sent += CHUNK) {
+                            limiter.acquire(CHUNK);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertWithinWindow(start, TOTAL);
+    }
+
+    @Test
+    public void setRateTakesEffectImmediately() throws InterruptedIOException {
+        RateLimiter limiter = new RateLimiter(RATE / 100);
+        limiter.setRate(RATE);
+        assertEquals(RATE, limiter.getRate());
+        long start = System.nanoTime();
+        for (int sent = 0; sent < TOTAL; sent += CHUNK) {
+            limiter.acquire(CHUNK);
+        }
+        assertWithinWindow(start, TOTAL);
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void interruptSurfacesAsInterruptedIOException() throws InterruptedIOException {
+        RateLimiter limiter = new RateLimiter(1024);
+        Thread.currentThread().interrupt();
+        try {
+            limiter.acquire(CHUNK);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * 不早于按速率算出的时间(留一个突发窗口的余量),也不明显更慢
+     */
+    private static void assertWithinWindow(long start, int bytes) {
+        long expected = bytes * 1000L / RATE;
+        long elapsed = elapsedMillis(start);
+        assertTrue("too fast: " + elapsed + "ms", elapsed >= expected - 250);
+        assertTrue("too slow: " + elapsed + "ms", elapsed <= expected * 3);
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,54 @@
+package cn.gnsit.wenwan.app.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    private static final int SAMPLES = 2000;
+
+    @Test
+    public void delayStaysWithinTheExponentialCap() {
+        RetryPolicy policy = new RetryPolicy(4, 100, 1000);
+        long[] caps = {100, 200, 400, 800, 1000, 1000};
+        for (int attempt = 1; attempt <= caps.length; attempt++) {
+            long max = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+                long delay = policy.delayFor(attempt);
+                assertTrue("attempt " + attempt + ": " + delay, delay >= 0 && delay < caps[attempt - 1]);
+                max = Math.max(max, delay);
+            }
+            // full jitter覆盖整个区间,不是固定值
+            assertTrue("attempt " + attempt + " max " + max, max > caps[attempt - 1] / 2);
+        }
+    }
+
+    @Test
+    public void largeAttemptDoesNotOverflow() {
+        RetryPolicy policy = RetryPolicy.DEFAULT;
+        for (int attempt = 1; attempt <= 100; attempt++) {
+            long delay = policy.delayFor(attempt);
+            assertTrue("attempt " + attempt + ": " + delay, delay >= 0 && delay < 30 * 1000);
+        }
+    }
+
+    @Test
+    public void transportErrorsAreRetryable() {
+        assertTrue(RetryPolicy.isRetryable(ApkDownloader.ERROR_IO));
+        assertTrue(RetryPolicy.isRetryable(500));
+        assertTrue(RetryPolicy.isRetryable(503));
+        assertTrue(RetryPolicy.isRetryable(408));
+        assertTrue(RetryPolicy.isRetryable(429));
+    }
+
+    @Test
+    public void localAndClientErrorsAreNotRetryable() {
+        assertFalse(RetryPolicy.isRetryable(ApkDownloader.ERROR_CANCELED));
+        assertFalse(RetryPolicy.isRetryable(ApkDownloader.ERROR_VERIFY));
+        assertFalse(RetryPolicy.isRetryable(400));
+        assertFalse(RetryPolicy.isRetryable(403));
+        assertFalse(RetryPolicy.isRetryable(404));
+        assertFalse(RetryPolicy.isRetryable(416));
+    }
+}
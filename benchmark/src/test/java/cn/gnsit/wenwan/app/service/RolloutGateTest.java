@@ -0,0 +1,142 @@
+package cn.gnsit.wenwan.app.service;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import cn.gnsit.wenwan.app.model.VersionUpdateModel;
+import cn.gnsit.wenwan.app.utils.InstallId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RolloutGateTest {
+    private static final int DEVICES = 20000;
+    private static final int BUILD = 120;
+
+    private final List<String> ids = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < DEVICES; i++) {
+            ids.add(new UUID(random.nextLong(), random.nextLong()).toString());
+        }
+    }
+
+    @Test
+    public void fractionIsStableAndInRange() {
+        for (String id : ids.subList(0, 100)) {
+            double fraction = InstallId.fraction(id, "rollout" + BUILD);
+            assertTrue(fraction >= 0 && fraction < 1);
+            assertEquals(fraction, InstallId.fraction(id, "rollout" + BUILD), 0);
+        }
+    }
+
+    @Test
+    public void installIdIsGeneratedOnceAndKept() {
+        Context context = new Context();
+        String id = InstallId.get(context);
+
+        assertEquals(36, id.length());
+        assertEquals(id, InstallId.get(context));
+        assertEquals(InstallId.fraction(id, "salt"), InstallId.fraction(context, "salt"), 0);
+    }
+
+    @Test
+    public void bucketsAreUniform() {
+        int[] deciles = new int[10];
+        for (String id : ids) {
+            double bucket = RolloutGate.bucket(id, BUILD);
+            assertTrue(bucket >= 0 && bucket < 100);
+            deciles[(int) (bucket / 10)]++;
+        }
+        for (int i = 0; i < deciles.length; i++) {
+            assertEquals("decile " + i, DEVICES / 10, deciles[i], DEVICES / 10 * 0.1);
+        }
+    }
+
+    @Test
+    public void eligibleShareMatchesThePercent() {
+        UpgradeExtras extras = extras(30, 0, 0);
+        int eligible = 0;
+        for (String id : ids) {
+            if (RolloutGate.isEligible(id, BUILD, extras, 0))
+                eligible++;
+        }
+        assertEquals(DEVICES * 0.3, eligible, DEVICES * 0.02);
+    }
+
+    @Test
+    public void raisingThePercentNeverDropsADevice() {
+        UpgradeExtras low = extras(10, 0, 0);
+        UpgradeExtras high = extras(50, 0, 0);
+        for (String id : ids) {
+            if (RolloutGate.isEligible(id, BUILD, low, 0))
+                assertTrue(RolloutGate.isEligible(id, BUILD, high, 0));
+        }
+    }
+
+    @Test
+    public void eachBuildPicksADifferentCohort() {
+        UpgradeExtras extras = extras(10, 0, 0);
+        int both = 0;
+        for (String id : ids) {
+            if (RolloutGate.isEligible(id, BUILD, extras, 0) && RolloutGate.isEligible(id, BUILD + 1, extras, 0))
+                both++;
+        }
+        // 两次发布相互独立时约1%的设备同时入选
+        assertEquals(DEVICES * 0.01, both, DEVICES * 0.005);
+    }
+
+    @Test
+    public void zeroAndFullPercentAreAbsolute() {
+        UpgradeExtras none = extras(0, 0, 0);
+        UpgradeExtras all = extras(100, 0, 0);
+        for (String id : ids.subList(0, 1000)) {
+            assertFalse(RolloutGate.isEligible(id, BUILD, none, 0));
+            assertTrue(RolloutGate.isEligible(id, BUILD, all, 0));
+        }
+    }
+
+    @Test
+    public void percentRampsLinearlyAcrossTheWindow() {
+        UpgradeExtras extras = extras(40, 1000, 2000);
+
+        assertEquals(0, RolloutGate.currentPercent(extras, 500), 0);
+        assertEquals(0, RolloutGate.currentPercent(extras, 1000), 0);
+        assertEquals(10, RolloutGate.currentPercent(extras, 1250), 1e-9);
+        assertEquals(20, RolloutGate.currentPercent(extras, 1500), 1e-9);
+        assertEquals(40, RolloutGate.currentPercent(extras, 2000), 0);
+        assertEquals(40, RolloutGate.currentPercent(extras, 5000), 0);
+        // 没有时间窗口或窗口无效时直接使用配置的比例
+        assertEquals(40, RolloutGate.currentPercent(extras(40, 0, 0), 1500), 0);
+        assertEquals(40, RolloutGate.currentPercent(extras(40, 2000, 1000), 1500), 0);
+    }
+
+    @Test
+    public void mandatoryUpdatesBypassTheGate() {
+        VersionUpdateModel model = new VersionUpdateModel();
+        model.setMustUpgrade(true);
+
+        assertTrue(RolloutGate.isEligible(new Context(), model, extras(0, 0, 0)));
+        model.setMustUpgrade(false);
+        assertTrue(RolloutGate.isEligible(new Context(), model, null));
+        assertFalse(RolloutGate.isEligible(new Context(), model, extras(0, 0, 0)));
+    }
+
+    private static UpgradeExtras extras(int percent, long start, long end) {
+        UpgradeExtras extras = new UpgradeExtras();
+        extras.setRolloutPercent(percent);
+        extras.setRolloutStart(start);
+        extras.setRolloutEnd(end);
+        return extras;
+    }
+}
@@ -0,0 +1,170 @@
+package cn.gnsit.wenwan.app.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateMetricsTest {
+    private static final long SECOND = 1000000000L;
+
+    private final UpdateMetrics metrics = UpdateMetrics.getInstance();
+    private final RecordingExporter exporter = new RecordingExporter();
+
+    @Before
+    public void setUp() {
+        metrics.setExporter(exporter);
+    }
+
+    @After
+    public void tearDown() {
+        metrics.setExporter(null);
+    }
+
+    @Test
+    public void noopRecordsNothing() {
+        metrics.setExporter(null);
+        long bytes = metrics.getBytes();
+        long retries = metrics.getRetries();
+        long failures = metrics.getFailures();
+        long[] histogram = metrics.getThroughputHistogram();
+
+        assertFalse(metrics.isEnabled());
+        metrics.begin(UpdateMetrics.Stage.DOWNLOAD);
+        metrics.addBytes(100);
+        metrics.throughput(1024, SECOND);
+        metrics.retry(UpdateMetrics.Stage.DOWNLOAD, UpdateMetrics.REASON_IO);
+        metrics.failure(UpdateMetrics.Stage.DOWNLOAD, UpdateMetrics.REASON_IO);
+        metrics.end(UpdateMetrics.Stage.DOWNLOAD);
+
+        assertEquals(bytes, metrics.getBytes());
+        assertEquals(retries, metrics.getRetries());
+        assertEquals(failures, metrics.getFailures());
+        assertTrue(Arrays.equals(histogram, metrics.getThroughputHistogram()));
+        assertTrue(exporter.events.isEmpty());
+    }
+
+    @Test
+    public void stageIsReportedOncePerBegin() {
+        assertTrue(metrics.isEnabled());
+        metrics.begin(UpdateMetrics.Stage.CHECK);
+        metrics.end(UpdateMetrics.Stage.CHECK);
+        metrics.end(UpdateMetrics.Stage.CHECK);
+
+        assertEquals(1, exporter.events.size());
+        assertEquals("stage CHECK", exporter.events.get(0));
+        assertTrue(exporter.lastEnd >= exporter.lastStart);
+    }
+
+    @Test
+    public void endWithoutBeginIsIgnored() {
+        metrics.end(UpdateMetrics.Stage.INSTALL);
+
+        assertTrue(exporter.events.isEmpty());
+    }
+
+    @Test
+    public void stagesAreTimedIndependently() {
+        metrics.begin(UpdateMetrics.Stage.DOWNLOAD);
+        metrics.begin(UpdateMetrics.Stage.FIRST_BYTE);
+        metrics.end(UpdateMetrics.Stage.FIRST_BYTE);
+        metrics.end(UpdateMetrics.Stage.DOWNLOAD);
+
+        assertEquals(2, exporter.events.size());
+        assertEquals("stage FIRST_BYTE", exporter.events.get(0));
+        assertEquals("stage DOWNLOAD", exporter.events.get(1));
+    }
+
+    @Test
+    public void failureEndsTheStageWithoutReportingIt() {
+        long failures = metrics.getFailures();
+        metrics.begin(UpdateMetrics.Stage.DOWNLOAD);
+        metrics.failure(UpdateMetrics.Stage.DOWNLOAD, UpdateMetrics.REASON_VERIFY);
+        metrics.end(UpdateMetrics.Stage.DOWNLOAD);
+
+        assertEquals(failures + 1, metrics.getFailures());
+        assertEquals(1, exporter.events.size());
+        assertEquals("failure DOWNLOAD verify", exporter.events.get(0));
+    }
+
+    @Test
+    public void retriesAndBytesAccumulate() {
+        long retries = metrics.getRetries();
+        long bytes = metrics.getBytes();
+        metrics.retry(UpdateMetrics.Stage.DOWNLOAD, UpdateMetrics.REASON_HTTP);
+        metrics.retry(UpdateMetrics.Stage.DOWNLOAD, UpdateMetrics.REASON_IO);
+        metrics.addBytes(4096);
+        metrics.addBytes(1024);
+
+        assertEquals(retries + 2, metrics.getRetries());
+        assertEquals(bytes + 5120, metrics.getBytes());
+        assertEquals("retry DOWNLOAD http", exporter.events.get(0));
+        assertEquals("retry DOWNLOAD io", exporter.events.get(1));
+    }
+
+    @Test
+    public void throughputFallsIntoBuckets() {
+        long[] before = metrics.getThroughputHistogram();
+        // 8KB/s、恰好16KB/s、100KB/s、5MB/s
+        metrics.throughput(8 * 1024, SECOND);
+        metrics.throughput(16 * 1024, SECOND);
+        metrics.throughput(50 * 1024, SECOND / 2);
+        metrics.throughput(5 * 1024 * 1024, SECOND);
+        metrics.throughput(1024, 0);
+        long[] after = metrics.getThroughputHistogram();
+
+        assertEquals(6, after.length);
+        long[] expected = {1, 1, 1, 0, 0, 1};
+        for (int i = 0; i < after.length; i++) {
+            assertEquals("bucket " + i, expected[i], after[i] - before[i]);
+        }
+        assertEquals("throughput 0", exporter.events.get(0));
+        assertEquals("throughput 1", exporter.events.get(1));
+        assertEquals("throughput 2", exporter.events.get(2));
+        assertEquals("throughput 5", exporter.events.get(3));
+        assertEquals(4, exporter.events.size());
+    }
+
+    @Test
+    public void downloadErrorCodesMapToReasons() {
+        assertEquals(UpdateMetrics.REASON_IO, UpdateMetrics.reasonOf(ApkDownloader.ERROR_IO));
+        assertEquals(UpdateMetrics.REASON_CANCELED, UpdateMetrics.reasonOf(ApkDownloader.ERROR_CANCELED));
+        assertEquals(UpdateMetrics.REASON_VERIFY, UpdateMetrics.reasonOf(ApkDownloader.ERROR_VERIFY));
+        assertEquals(UpdateMetrics.REASON_HTTP, UpdateMetrics.reasonOf(503));
+    }
+
+    private static class RecordingExporter implements UpdateMetrics.Exporter {
+        final List<String> events = new ArrayList<>();
+        long lastStart;
+        long lastEnd;
+
+        @Override
+        public void onStage(UpdateMetrics.Stage stage, long startNanos, long endNanos) {
+            lastStart = startNanos;
+            lastEnd = endNanos;
+            events.add("stage " + stage);
+        }
+
+        @Override
+        public void onRetry(UpdateMetrics.Stage stage, String reason) {
+            events.add("retry " + stage + " " + reason);
+        }
+
+        @Override
+        public void onFailure(UpdateMetrics.Stage stage, String reason) {
+            events.add("failure " + stage + " " + reason);
+        }
+
+        @Override
+        public void onThroughput(long bytes, long nanos, int bucket) {
+            events.add("throughput " + bucket);
+        }
+    }
+}
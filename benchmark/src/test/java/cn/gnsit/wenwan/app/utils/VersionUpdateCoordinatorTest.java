@@ -0,0 +1,117 @@
+package cn.gnsit.wenwan.app.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VersionUpdateCoordinatorTest {
+    private static final int FOUND = 1;
+    private static final int CANCELED = -1;
+
+    private final VersionUpdateCoordinator coordinator = VersionUpdateCoordinator.getInstance();
+    private final VersionUpdateHelper owner = new VersionUpdateHelper();
+    private final VersionUpdateHelper other = new VersionUpdateHelper();
+    private final List<Integer> received = new ArrayList<>();
+    private final VersionUpdateHelper.CheckCallBack callBack = new VersionUpdateHelper.CheckCallBack() {
+        @Override
+        public void callBack(int code) {
+            received.add(code);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        // 单例:清掉其他用例留下的执行者和等待者
+        VersionUpdateHelper previous = new VersionUpdateHelper();
+        coordinator.acquire(previous);
+        coordinator.release(previous, 0);
+    }
+
+    @After
+    public void tearDown() {
+        coordinator.release(owner, 0);
+        coordinator.release(other, 0);
+    }
+
+    @Test
+    public void onlyOneHelperChecksAtATime() {
+        assertTrue(coordinator.acquire(owner));
+        assertFalse(coordinator.acquire(other));
+        assertTrue(coordinator.acquire(owner));
+
+        coordinator.release(owner, CANCELED);
+        assertTrue(coordinator.acquire(other));
+    }
+
+    @Test
+    public void joinedCallbacksShareThePublishedResult() {
+        coordinator.acquire(owner);
+        coordinator.join(callBack);
+        coordinator.join(callBack);
+        assertTrue(received.isEmpty());
+
+        coordinator.publish(FOUND);
+        coordinator.release(owner, CANCELED);
+
+        assertEquals(Arrays.asList(FOUND, FOUND), received);
+    }
+
+    @Test
+    public void lateJoinerGetsTheResultImmediately() {
+        coordinator.acquire(owner);
+        coordinator.publish(FOUND);
+        coordinator.join(callBack);
+
+        assertEquals(Collections.singletonList(FOUND), received);
+    }
+
+    @Test
+    public void releaseWithoutResultNotifiesWaiters() {
+        coordinator.acquire(owner);
+        coordinator.join(callBack);
+        coordinator.release(owner, CANCELED);
+
+        assertEquals(Collections.singletonList(CANCELED), received);
+    }
+
+    @Test
+    public void releaseByANonOwnerIsIgnored() {
+        coordinator.acquire(owner);
+        coordinator.join(callBack);
+        coordinator.release(other, CANCELED);
+
+        assertTrue(received.isEmpty());
+        assertFalse(coordinator.acquire(other));
+    }
+
+    @Test
+    public void newCheckDoesNotReuseThePreviousResult() {
+        coordinator.acquire(owner);
+        coordinator.publish(FOUND);
+        coordinator.release(owner, CANCELED);
+
+        coordinator.acquire(other);
+        coordinator.join(callBack);
+        assertTrue(received.isEmpty());
+        coordinator.publish(CANCELED);
+        assertEquals(Collections.singletonList(CANCELED), received);
+    }
+
+    @Test
+    public void nullCallbackIsIgnored() {
+        coordinator.acquire(owner);
+        coordinator.join(null);
+        coordinator.publish(FOUND);
+
+        assertTrue(received.isEmpty());
+    }
+}